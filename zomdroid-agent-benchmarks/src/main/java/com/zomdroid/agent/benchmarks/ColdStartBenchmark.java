@@ -0,0 +1,63 @@
+package com.zomdroid.agent.benchmarks;
+
+import com.zomdroid.agent.glsl.GLSLCompatLexer;
+import com.zomdroid.agent.glsl.TwoStageParser;
+import com.zomdroid.agent.glsl.antlr.GLSLParser;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of translating a shader with an empty ANTLR DFA cache, which is what the first shader loaded by the game pays.
+ * <p>
+ * The lexer and parser DFA caches are shared statically by all instances, so they are cleared before every invocation.
+ * Each invocation is timed on its own, and a fresh JVM per fork also captures class loading and ATN deserialization
+ * in the first measured invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 20)
+@Fork(5)
+public class ColdStartBenchmark {
+    @Param({ShaderCorpus.LARGE_LIGHTING, ShaderCorpus.INCLUDE_HEAVY, ShaderCorpus.STRUCT_HEAVY, ShaderCorpus.WATER})
+    public String shader;
+
+    private String code;
+    private CommonTokenStream tokens;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        code = ShaderCorpus.load(shader);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearDFA() {
+        GLSLCompatLexer lexer = new GLSLCompatLexer(CharStreams.fromString(""));
+        lexer.getInterpreter().clearDFA();
+        new GLSLParser(new CommonTokenStream(lexer)).getInterpreter().clearDFA();
+
+        tokens = new CommonTokenStream(new GLSLCompatLexer(CharStreams.fromString(code)));
+        tokens.fill();
+        tokens.seek(0);
+    }
+
+    @Benchmark
+    public CommonTokenStream lex() {
+        return TranslatorBenchmark.lex(code);
+    }
+
+    @Benchmark
+    public ParseTree parse() {
+        return TwoStageParser.parse(new GLSLParser(tokens)).tree();
+    }
+
+    @Benchmark
+    public String translate() {
+        return TranslatorBenchmark.translate(code);
+    }
+}
@@ -0,0 +1,64 @@
+package com.zomdroid.agent.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-include overhead of calling the game's {@code ShaderUnit.preProcessShaderFile} from
+ * {@code ShaderUnit.processIncludeLine}: reflectively through {@link Method#invoke} as done before,
+ * through a constant {@link MethodHandle} as done now, and directly as a reference.
+ * <p>
+ * The game class isn't available here, so {@link GameShaderUnit} stands in for it with a method that does no work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncludeCallBenchmark {
+    public static class GameShaderUnit {
+        public String preProcessShaderFile(String path, ArrayList<String> additionalShaders) {
+            return path;
+        }
+    }
+
+    private static final Method method;
+    private static final MethodHandle handle;
+
+    static {
+        try {
+            method = GameShaderUnit.class.getDeclaredMethod("preProcessShaderFile", String.class, ArrayList.class);
+            handle = MethodHandles.privateLookupIn(GameShaderUnit.class, MethodHandles.lookup())
+                    .findVirtual(GameShaderUnit.class, "preProcessShaderFile", MethodType.methodType(String.class, String.class, ArrayList.class))
+                    .asType(MethodType.methodType(String.class, Object.class, String.class, ArrayList.class));
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final Object shaderUnit = new GameShaderUnit();
+    private final ArrayList<String> additionalShaders = new ArrayList<>();
+    private final String path = "media/shaders/util.glsl";
+
+    @Benchmark
+    public String reflective() throws Exception {
+        return (String) method.invoke(shaderUnit, path, additionalShaders);
+    }
+
+    @Benchmark
+    public String methodHandle() throws Throwable {
+        return (String) handle.invokeExact(shaderUnit, path, additionalShaders);
+    }
+
+    @Benchmark
+    public String direct() {
+        return ((GameShaderUnit) shaderUnit).preProcessShaderFile(path, additionalShaders);
+    }
+}
@@ -0,0 +1,31 @@
+package com.zomdroid.agent.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Representative GLSL shaders bundled with the benchmarks, stored under {@code shaders/} in resources.
+ * <ul>
+ *   <li>{@code large_lighting.frag} - big lighting pass with many helpers and mixed int/float arithmetic</li>
+ *   <li>{@code include_heavy.frag} - shader as produced after inlining several {@code #include} units</li>
+ *   <li>{@code struct_heavy.frag} - material and light structs passed around helpers</li>
+ *   <li>{@code water.vert} - small vertex shader, representative of most of the game's shaders</li>
+ * </ul>
+ */
+public class ShaderCorpus {
+    public static final String LARGE_LIGHTING = "large_lighting.frag";
+    public static final String INCLUDE_HEAVY = "include_heavy.frag";
+    public static final String STRUCT_HEAVY = "struct_heavy.frag";
+    public static final String WATER = "water.vert";
+
+    public static String load(String name) {
+        try (InputStream in = ShaderCorpus.class.getClassLoader().getResourceAsStream("shaders/" + name)) {
+            if (in == null)
+                throw new IllegalArgumentException("Unknown shader " + name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
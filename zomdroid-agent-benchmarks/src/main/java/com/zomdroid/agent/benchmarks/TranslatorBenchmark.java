@@ -0,0 +1,114 @@
+package com.zomdroid.agent.benchmarks;
+
+import com.zomdroid.agent.glsl.GLSLCompatLexer;
+import com.zomdroid.agent.glsl.GLSLCoreToESVisitor;
+import com.zomdroid.agent.glsl.GLSLTranslator;
+import com.zomdroid.agent.glsl.ShaderIR;
+import com.zomdroid.agent.glsl.TwoStageParser;
+import com.zomdroid.agent.glsl.antlr.GLSLParser;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steady state cost of each translator stage, with the shared ANTLR DFA cache already populated.
+ * Stages are measured separately on inputs prepared in setup, and together in {@link #translate()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranslatorBenchmark {
+    @Param({ShaderCorpus.LARGE_LIGHTING, ShaderCorpus.INCLUDE_HEAVY, ShaderCorpus.STRUCT_HEAVY, ShaderCorpus.WATER})
+    public String shader;
+
+    private String code;
+    private CommonTokenStream tokens;
+    private GLSLParser.Translation_unitContext tree;
+    private GLSLCoreToESVisitor visitor;
+    private final GLSLTranslator translator = new GLSLTranslator();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        code = ShaderCorpus.load(shader);
+        tokens = lex(code);
+        tree = TwoStageParser.parse(new GLSLParser(tokens)).tree();
+        visitor = new GLSLCoreToESVisitor(ShaderIR.lower(tree, tokens.getTokens()));
+        visitor.visit();
+    }
+
+    static CommonTokenStream lex(String code) {
+        CommonTokenStream tokens = new CommonTokenStream(new GLSLCompatLexer(CharStreams.fromString(code)));
+        tokens.fill();
+        return tokens;
+    }
+
+    static String translate(String code) {
+        return new GLSLTranslator().translate(code).code();
+    }
+
+    @Benchmark
+    public CommonTokenStream lex() {
+        return lex(code);
+    }
+
+    /**
+     * Parse as done by the translator, SLL first with fallback to LL.
+     */
+    @Benchmark
+    public ParseTree parse() {
+        tokens.seek(0);
+        return TwoStageParser.parse(new GLSLParser(tokens)).tree();
+    }
+
+    /**
+     * Parse with full LL prediction only, as a reference for {@link #parse()}.
+     */
+    @Benchmark
+    public ParseTree parseLL() {
+        tokens.seek(0);
+        GLSLParser parser = new GLSLParser(tokens);
+        parser.removeErrorListener(ConsoleErrorListener.INSTANCE);
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+        return parser.translation_unit();
+    }
+
+    /**
+     * Lowering to the IR and visiting it, as timed by the translator's visit stage.
+     */
+    @Benchmark
+    public GLSLCoreToESVisitor visit() {
+        ShaderIR ir = ShaderIR.lower(tree, tokens.getTokens());
+        GLSLCoreToESVisitor visitor = new GLSLCoreToESVisitor(ir);
+        visitor.visit();
+        return visitor;
+    }
+
+    @Benchmark
+    public String rewrite() {
+        return visitor.rewriter.apply(code, tokens.getTokens());
+    }
+
+    /**
+     * Whole translation with a new {@link GLSLTranslator}, as done for the first shader of a thread.
+     */
+    @Benchmark
+    public String translate() {
+        return translate(code);
+    }
+
+    /**
+     * Whole translation reusing the lexer and parser of a {@link GLSLTranslator}.
+     */
+    @Benchmark
+    public String translateReused() {
+        return translator.translate(code).code();
+    }
+}
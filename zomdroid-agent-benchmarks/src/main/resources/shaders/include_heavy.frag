@@ -0,0 +1,112 @@
+#version 120
+vec3 saturate3(vec3 v);
+float saturate1(float v);
+float rand(vec2 co);
+float noise2(vec2 p);
+float fbm(vec2 p);
+vec3 grade(vec3 c, float amount);
+vec3 contrast(vec3 c, float amount);
+vec3 overlay(vec3 base, vec3 blend);
+float luminance(vec3 c);
+vec3 hsv2rgb(vec3 c);
+vec3 rgb2hsv(vec3 c);
+vec3 saturate3(vec3 v) {
+    return clamp(v, 0.0, 1.0);
+}
+
+float saturate1(float v) {
+    return clamp(v, 0, 1);
+}
+
+float rand(vec2 co) {
+    return fract(sin(dot(co, vec2(12.9898, 78.233))) * 43758.5453);
+}
+
+float noise2(vec2 p) {
+    vec2 i = floor(p);
+    vec2 f = fract(p);
+    vec2 u = f * f * (3 - 2 * f);
+    return mix(mix(rand(i), rand(i + vec2(1, 0)), u.x), mix(rand(i + vec2(0, 1)), rand(i + vec2(1, 1)), u.x), u.y);
+}
+
+float fbm(vec2 p) {
+    float v = 0;
+    float a = 0.5;
+    for (int i = 0; i < 4; i++) {
+        v += a * noise2(p);
+        p *= 2;
+        a *= 0.5;
+    }
+    return v;
+}
+
+vec3 grade(vec3 c, float amount) {
+    return saturate3(c * (1 + amount));
+}
+
+vec3 contrast(vec3 c, float amount) {
+    return saturate3((c - 0.5) * (1 + amount) + 0.5);
+}
+
+vec3 overlay(vec3 base, vec3 blend) {
+    vec3 lo = 2 * base * blend;
+    vec3 hi = 1 - 2 * (1 - base) * (1 - blend);
+    return mix(lo, hi, step(0.5, base));
+}
+
+float luminance(vec3 c) {
+    return dot(c, vec3(0.299, 0.587, 0.114));
+}
+
+vec3 hsv2rgb(vec3 c) {
+    vec4 K = vec4(1, 2.0 / 3.0, 1.0 / 3.0, 3);
+    vec3 p = abs(fract(c.xxx + K.xyz) * 6 - K.www);
+    return c.z * mix(K.xxx, saturate3(p - K.xxx), c.y);
+}
+
+vec3 rgb2hsv(vec3 c) {
+    vec4 K = vec4(0, -1.0 / 3.0, 2.0 / 3.0, -1);
+    vec4 p = mix(vec4(c.bg, K.wz), vec4(c.gb, K.xy), step(c.b, c.g));
+    vec4 q = mix(vec4(p.xyw, c.r), vec4(c.r, p.yzx), step(p.x, c.r));
+    float d = q.x - min(q.w, q.y);
+    float e = 1.0e-10;
+    return vec3(abs(q.z + (q.w - q.y) / (6 * d + e)), d / (q.x + e), q.x);
+}
+float blurWeight(float x, float sigma);
+vec4 blur9(sampler2D tex, vec2 uv, vec2 dir);
+float blurWeight(float x, float sigma) {
+    return exp(-(x * x) / (2 * sigma * sigma));
+}
+
+vec4 blur9(sampler2D tex, vec2 uv, vec2 dir) {
+    vec4 sum = vec4(0);
+    float total = 0;
+    for (int i = -4; i <= 4; i++) {
+        float w = blurWeight(float(i), 2);
+        sum += texture2D(tex, uv + dir * float(i)) * w;
+        total += w;
+    }
+    return sum / total;
+}
+uniform sampler2D Texture;
+uniform sampler2D Bloom;
+uniform vec2 texelSize;
+uniform float time;
+uniform float intensity;
+uniform float saturation;
+varying vec2 texCoord;
+
+void main() {
+    vec3 c = texture2D(Texture, texCoord).rgb;
+    vec3 bloom = blur9(Bloom, texCoord, vec2(texelSize.x, 0)).rgb;
+    float n = fbm(texCoord * 8 + time) * 2 - 1;
+    c = grade(c + n * 0.02, intensity);
+    c = contrast(c, 0.1);
+    c = overlay(c, bloom * 0.5);
+    vec3 hsv = rgb2hsv(c);
+    hsv.y *= saturation;
+    c = hsv2rgb(hsv);
+    vec2 d = texCoord - 0.5;
+    float vig = 1 - dot(d, d) * 2;
+    gl_FragColor = vec4(c * vig + luminance(bloom) * 0.1, 1);
+}
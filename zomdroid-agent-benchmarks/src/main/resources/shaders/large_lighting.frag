@@ -0,0 +1,232 @@
+#version 120
+// Large lighting pass: many helpers, heavy arithmetic with mixed int/float literals
+
+#define MAX_LIGHTS 8
+#define SHADOW_TAPS 12
+
+uniform sampler2D DIFFUSE;
+uniform sampler2D NORMALS;
+uniform sampler2D DEPTH;
+uniform sampler2D SHADOWMAP;
+uniform sampler2D NOISE;
+uniform vec4 ambient;
+uniform vec3 sunDirection;
+uniform vec3 sunColor;
+uniform vec3 fogColor;
+uniform vec2 screenSize;
+uniform float timer;
+uniform float fogDensity;
+uniform float exposure;
+uniform float rainIntensity;
+uniform float nightTint;
+uniform int lightCount;
+uniform vec3 lightPositions[MAX_LIGHTS];
+uniform vec3 lightColors[MAX_LIGHTS];
+uniform float lightRadii[MAX_LIGHTS];
+uniform mat4 invViewProjection;
+
+varying vec2 texCoord;
+varying vec3 worldPos;
+varying vec3 viewDir;
+
+const float PI = 3.14159265;
+const float GAMMA = 2.2;
+
+vec3 toLinear(vec3 c) {
+    return pow(c, vec3(GAMMA));
+}
+
+vec3 toGamma(vec3 c) {
+    return pow(c, vec3(1 / GAMMA));
+}
+
+float luminance(vec3 c) {
+    return dot(c, vec3(0.2126, 0.7152, 0.0722));
+}
+
+float saturate1(float x) {
+    return clamp(x, 0, 1);
+}
+
+vec3 saturate3(vec3 x) {
+    return clamp(x, 0.0, 1.0);
+}
+
+float hash12(vec2 p) {
+    vec3 p3 = fract(vec3(p.xyx) * 0.1031);
+    p3 += dot(p3, p3.yzx + 33.33);
+    return fract((p3.x + p3.y) * p3.z);
+}
+
+float noise2(vec2 p) {
+    vec2 i = floor(p);
+    vec2 f = fract(p);
+    float a = hash12(i);
+    float b = hash12(i + vec2(1, 0));
+    float c = hash12(i + vec2(0, 1));
+    float d = hash12(i + vec2(1, 1));
+    vec2 u = f * f * (3 - 2 * f);
+    return mix(a, b, u.x) + (c - a) * u.y * (1 - u.x) + (d - b) * u.x * u.y;
+}
+
+float fbm(vec2 p) {
+    float v = 0;
+    float amp = 0.5;
+    for (int i = 0; i < 5; i++) {
+        v += amp * noise2(p);
+        p = p * 2 + vec2(100);
+        amp *= 0.5;
+    }
+    return v;
+}
+
+vec3 decodeNormal(vec4 enc) {
+    vec3 n = enc.xyz * 2 - 1;
+    return normalize(n);
+}
+
+vec3 reconstructPosition(vec2 uv, float depth) {
+    vec4 clip = vec4(uv * 2 - 1, depth * 2 - 1, 1);
+    vec4 world = invViewProjection * clip;
+    return world.xyz / world.w;
+}
+
+float attenuation(float dist, float radius) {
+    float a = saturate1(1 - dist / radius);
+    return a * a * (3 - 2 * a);
+}
+
+float lambert(vec3 n, vec3 l) {
+    return max(dot(n, l), 0);
+}
+
+float blinnPhong(vec3 n, vec3 l, vec3 v, float shininess) {
+    vec3 h = normalize(l + v);
+    return pow(max(dot(n, h), 0.0), shininess);
+}
+
+float fresnelSchlick(float cosTheta, float f0) {
+    return f0 + (1 - f0) * pow(1 - cosTheta, 5);
+}
+
+float distributionGGX(vec3 n, vec3 h, float roughness) {
+    float a = roughness * roughness;
+    float a2 = a * a;
+    float ndoth = max(dot(n, h), 0);
+    float denom = ndoth * ndoth * (a2 - 1) + 1;
+    return a2 / (PI * denom * denom);
+}
+
+float geometrySchlick(float ndotv, float roughness) {
+    float r = roughness + 1;
+    float k = r * r / 8;
+    return ndotv / (ndotv * (1 - k) + k);
+}
+
+float shadowSample(vec2 uv, float compare) {
+    float d = texture2D(SHADOWMAP, uv).r;
+    return step(compare, d + 0.002);
+}
+
+float shadowPCF(vec2 uv, float compare) {
+    float sum = 0;
+    float angle = hash12(uv * screenSize) * 2 * PI;
+    float s = sin(angle);
+    float c = cos(angle);
+    for (int i = 0; i < SHADOW_TAPS; i++) {
+        float fi = float(i);
+        float r = sqrt(fi + 0.5) / sqrt(float(SHADOW_TAPS));
+        float theta = fi * 2.4;
+        vec2 offset = vec2(cos(theta), sin(theta)) * r;
+        offset = vec2(offset.x * c - offset.y * s, offset.x * s + offset.y * c);
+        sum += shadowSample(uv + offset / screenSize * 3, compare);
+    }
+    return sum / float(SHADOW_TAPS);
+}
+
+vec3 pointLight(int idx, vec3 pos, vec3 n, vec3 v, vec3 albedo, float roughness) {
+    vec3 toLight = lightPositions[idx] - pos;
+    float dist = length(toLight);
+    vec3 l = toLight / dist;
+    vec3 h = normalize(l + v);
+    float ndotl = lambert(n, l);
+    float ndotv = max(dot(n, v), 0.001);
+    float D = distributionGGX(n, h, roughness);
+    float G = geometrySchlick(ndotv, roughness) * geometrySchlick(ndotl, roughness);
+    float F = fresnelSchlick(max(dot(h, v), 0), 0.04);
+    float spec = D * G * F / (4 * ndotv * ndotl + 0.001);
+    float att = attenuation(dist, lightRadii[idx]);
+    return (albedo / PI * (1 - F) + spec) * lightColors[idx] * ndotl * att;
+}
+
+vec3 sunLight(vec3 pos, vec3 n, vec3 v, vec3 albedo, float shadow) {
+    vec3 l = normalize(-sunDirection);
+    float diff = lambert(n, l);
+    float spec = blinnPhong(n, l, v, 32) * 0.25;
+    return (albedo * diff + spec) * sunColor * shadow;
+}
+
+vec3 applyFog(vec3 color, float dist) {
+    float f = 1 - exp(-dist * fogDensity);
+    float n = fbm(worldPos.xz * 0.05 + vec2(timer * 0.01, 0));
+    f = saturate1(f * (0.75 + n * 0.5));
+    return mix(color, fogColor, f);
+}
+
+vec3 applyRain(vec3 color, vec2 uv) {
+    float streak = fbm(vec2(uv.x * 80, uv.y * 4 + timer * 6));
+    float drops = step(0.7, streak) * rainIntensity;
+    return mix(color, color * 0.75 + vec3(0.05, 0.06, 0.08), drops * 0.5);
+}
+
+vec3 tonemapACES(vec3 x) {
+    float a = 2.51;
+    float b = 0.03;
+    float c = 2.43;
+    float d = 0.59;
+    float e = 0.14;
+    return saturate3((x * (a * x + b)) / (x * (c * x + d) + e));
+}
+
+vec3 nightGrade(vec3 color) {
+    float l = luminance(color);
+    vec3 blueShift = vec3(l * 0.6, l * 0.7, l * 1.2);
+    return mix(color, blueShift, nightTint);
+}
+
+vec3 vignette(vec3 color, vec2 uv) {
+    vec2 d = uv - 0.5;
+    float v = 1 - dot(d, d) * 1.5;
+    return color * saturate1(v);
+}
+
+void main() {
+    vec4 albedoSample = texture2D(DIFFUSE, texCoord);
+    vec3 albedo = toLinear(albedoSample.rgb);
+    vec3 n = decodeNormal(texture2D(NORMALS, texCoord));
+    float depth = texture2D(DEPTH, texCoord).r;
+    vec3 pos = reconstructPosition(texCoord, depth);
+    vec3 v = normalize(viewDir);
+    float roughness = 0.6 + texture2D(NOISE, texCoord * 4).r * 0.3;
+
+    float shadow = shadowPCF(texCoord, depth);
+    vec3 color = ambient.rgb * albedo;
+    color += sunLight(pos, n, v, albedo, shadow);
+
+    for (int i = 0; i < MAX_LIGHTS; i++) {
+        if (i >= lightCount) break;
+        color += pointLight(i, pos, n, v, albedo, roughness);
+    }
+
+    color = applyFog(color, length(pos - worldPos) + 1);
+    color = applyRain(color, texCoord);
+    color = nightGrade(color * exposure);
+    color = tonemapACES(color);
+    color = vignette(color, texCoord);
+
+    if (1 > luminance(color) * 4) {
+        color = mix(color, vec3(luminance(color)), 0.25 * (1 - luminance(color)));
+    }
+
+    gl_FragColor = vec4(toGamma(color), albedoSample.a * 1);
+}
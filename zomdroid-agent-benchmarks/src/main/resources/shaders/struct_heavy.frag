@@ -0,0 +1,61 @@
+#version 120
+struct Material {
+    vec3 albedo;
+    vec3 emissive;
+    float roughness;
+    float metallic;
+};
+
+struct PointLight {
+    vec3 position;
+    vec3 color;
+    float radius;
+    float intensity;
+};
+
+uniform sampler2D DIFFUSE;
+uniform Material baseMaterial;
+uniform PointLight lights[4];
+uniform int lightCount;
+uniform vec3 cameraPosition;
+varying vec2 texCoord;
+varying vec3 worldPos;
+varying vec3 worldNormal;
+
+Material sampleMaterial(vec2 uv) {
+    Material m;
+    m.albedo = texture2D(DIFFUSE, uv).rgb * baseMaterial.albedo;
+    m.emissive = baseMaterial.emissive * 2;
+    m.roughness = clamp(baseMaterial.roughness, 0.04, 1);
+    m.metallic = baseMaterial.metallic;
+    return m;
+}
+
+float lightFalloff(PointLight light, vec3 pos) {
+    float d = distance(light.position, pos);
+    float x = clamp(1 - d / light.radius, 0, 1);
+    return x * x * light.intensity;
+}
+
+vec3 shade(Material m, vec3 pos, vec3 n, vec3 v, PointLight light) {
+    vec3 l = normalize(light.position - pos);
+    float ndotl = max(dot(n, l), 0);
+    vec3 h = normalize(l + v);
+    float spec = pow(max(dot(n, h), 0), 2 / (m.roughness * m.roughness) - 2);
+    vec3 diffuse = m.albedo * (1 - m.metallic);
+    vec3 specular = mix(vec3(0.04), m.albedo, m.metallic) * spec;
+    return (diffuse + specular) * light.color * ndotl * lightFalloff(light, pos);
+}
+
+void main() {
+    Material m = sampleMaterial(texCoord);
+    vec3 n = normalize(worldNormal);
+    vec3 v = normalize(cameraPosition - worldPos);
+    vec3 color = m.emissive;
+    for (int i = 0; i < 4; i++) {
+        if (i >= lightCount) break;
+        color += shade(m, worldPos, n, v, lights[i]);
+    }
+    m.albedo *= 1;
+    gl_FragColor = vec4(color + m.albedo * 0, 1);
+}
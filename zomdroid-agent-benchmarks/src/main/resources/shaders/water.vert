@@ -0,0 +1,29 @@
+#version 120
+attribute vec3 position;
+attribute vec2 uv;
+attribute vec3 normal;
+uniform mat4 mvp;
+uniform mat4 model;
+uniform float time;
+uniform float waveHeight;
+varying vec2 texCoord;
+varying vec3 worldPos;
+varying vec3 worldNormal;
+varying float wave;
+
+float waveAt(vec2 p, float t) {
+    float w = sin(p.x * 3 + t) * 0.5 + cos(p.y * 2 + t * 2) * 0.25;
+    w += sin((p.x + p.y) * 5 + t * 3) * 0.125;
+    return w * waveHeight;
+}
+
+void main() {
+    vec3 p = position;
+    wave = waveAt(p.xz, time);
+    p.y += wave;
+    vec4 world = model * vec4(p, 1);
+    worldPos = world.xyz;
+    worldNormal = normalize((model * vec4(normal, 0)).xyz);
+    texCoord = uv + vec2(time * 0.01, 0);
+    gl_Position = mvp * vec4(p, 1);
+}
@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Build time generator of built-in function tables, run as a single-file source program from {@code pom.xml}.
+ * <p>
+ * Every file in the input directory is a builtin profile, with one declaration per line like
+ * {@code genType clamp(genType x, float minVal, float maxVal)}. For each profile a class named after the file
+ * (e.g. {@code GLSL_ES_2_BUILTINS} -> {@code GlslEs2Builtins}) is generated into package
+ * {@code com.zomdroid.agent.glsl}, holding the declarations with generic types already expanded,
+ * in the encoding read by {@code BuiltinFunctionTable}.
+ * <p>
+ * Generic types expand to one overload per member of their family. All generic types of a declaration expand
+ * together, so {@code genType mix(genType x, genType y, genBType a)} becomes {@code vec2 mix(vec2, vec2, bvec2)}
+ * and so on, never {@code vec2 mix(vec3, ...)}.
+ */
+public class BuiltinTableGenerator {
+    private static final String PACKAGE = "com.zomdroid.agent.glsl";
+
+    // matches lines like returnType name(paramType paramName, ...)
+    private static final Pattern DECLARATION = Pattern.compile("(\\w+)\\s+(\\w+)\\s*\\(([^)]*)\\)");
+
+    private static final Map<String, List<String>> GENERIC_TYPES = new LinkedHashMap<>();
+
+    static {
+        GENERIC_TYPES.put("genType", List.of("float", "vec2", "vec3", "vec4"));
+        GENERIC_TYPES.put("genIType", List.of("int", "ivec2", "ivec3", "ivec4"));
+        GENERIC_TYPES.put("genBType", List.of("bool", "bvec2", "bvec3", "bvec4"));
+        GENERIC_TYPES.put("matType", List.of("mat2", "mat3", "mat4"));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BuiltinTableGenerator <profile dir> <generated sources dir>");
+            System.exit(1);
+        }
+        Path profileDir = Paths.get(args[0]);
+        Path outputDir = Paths.get(args[1]).resolve(PACKAGE.replace('.', '/'));
+        Files.createDirectories(outputDir);
+
+        List<Path> profiles;
+        try (Stream<Path> files = Files.list(profileDir)) {
+            profiles = files.filter(Files::isRegularFile).sorted().toList();
+        }
+        for (Path profile : profiles) {
+            String className = classNameOf(profile.getFileName().toString());
+            String source = generate(className, profile);
+            Path output = outputDir.resolve(className + ".java");
+            if (!Files.exists(output) || !Files.readString(output, StandardCharsets.UTF_8).equals(source)) {
+                Files.writeString(output, source, StandardCharsets.UTF_8);
+            }
+            System.out.println("Generated " + className + " from " + profile);
+        }
+    }
+
+    private static String classNameOf(String fileName) {
+        StringBuilder name = new StringBuilder();
+        for (String part : fileName.split("[^A-Za-z0-9]+")) {
+            if (part.isEmpty()) continue;
+            name.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1).toLowerCase());
+        }
+        return name.toString();
+    }
+
+    private static String generate(String className, Path profile) throws IOException {
+        List<String> types = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        StringBuilder signatures = new StringBuilder();
+
+        for (String line : Files.readAllLines(profile, StandardCharsets.UTF_8)) {
+            Matcher matcher = DECLARATION.matcher(line);
+            if (!matcher.find()) continue;
+
+            String returnTypeName = matcher.group(1);
+            String name = matcher.group(2);
+            String params = matcher.group(3).trim();
+
+            List<String> paramTypeNames = new ArrayList<>();
+            for (String param : params.split(",")) {
+                paramTypeNames.add(param.trim().split("\\s+")[0]);
+            }
+
+            List<List<String>> overloads = expand(returnTypeName, paramTypeNames, profile, line);
+
+            names.add(name);
+            appendIndex(signatures, overloads.size());
+            for (List<String> signature : overloads) {
+                appendIndex(signatures, indexOf(types, signature.get(0)));
+                appendIndex(signatures, signature.size() - 1);
+                for (String paramTypeName : signature.subList(1, signature.size())) {
+                    appendIndex(signatures, indexOf(types, paramTypeName));
+                }
+            }
+        }
+
+        StringBuilder out = new StringBuilder();
+        out.append("package ").append(PACKAGE).append(";\n\n");
+        out.append("/**\n");
+        out.append(" * Built-in functions of profile ").append(profile.getFileName()).append(".\n");
+        out.append(" * Generated by BuiltinTableGenerator at build time, do not edit.\n");
+        out.append(" */\n");
+        out.append("final class ").append(className).append(" {\n");
+        out.append("    static final String[] TYPES = {");
+        appendStrings(out, types);
+        out.append("};\n\n");
+        out.append("    static final String[] NAMES = {");
+        appendStrings(out, names);
+        out.append("};\n\n");
+        out.append("    static final String SIGNATURES = \"").append(escape(signatures)).append("\";\n\n");
+        out.append("    private ").append(className).append("() {\n");
+        out.append("    }\n");
+        out.append("}\n");
+        return out.toString();
+    }
+
+    /**
+     * @return overloads of the declaration, each as return type name followed by parameter type names
+     */
+    private static List<List<String>> expand(String returnTypeName, List<String> paramTypeNames, Path profile, String line) {
+        List<String> signature = new ArrayList<>();
+        signature.add(returnTypeName);
+        signature.addAll(paramTypeNames);
+
+        List<String> members = null;
+        for (String typeName : signature) {
+            List<String> family = GENERIC_TYPES.get(typeName);
+            if (family == null) continue;
+            if (members != null && members.size() != family.size())
+                throw new IllegalArgumentException(profile + ": generic types of different sizes in '" + line + "'");
+            members = family;
+        }
+        if (members == null) return List.of(signature);
+
+        List<List<String>> overloads = new ArrayList<>();
+        for (int i = 0; i < members.size(); i++) {
+            List<String> overload = new ArrayList<>();
+            for (String typeName : signature) {
+                List<String> family = GENERIC_TYPES.get(typeName);
+                overload.add(family != null ? family.get(i) : typeName);
+            }
+            overloads.add(overload);
+        }
+        return overloads;
+    }
+
+    private static int indexOf(List<String> types, String type) {
+        int index = types.indexOf(type);
+        if (index == -1) {
+            index = types.size();
+            types.add(type);
+        }
+        return index;
+    }
+
+    private static void appendIndex(StringBuilder signatures, int index) {
+        if (index > Character.MAX_VALUE)
+            throw new IllegalArgumentException("Index " + index + " does not fit the table encoding");
+        signatures.append((char) index);
+    }
+
+    private static void appendStrings(StringBuilder out, List<String> strings) {
+        for (int i = 0; i < strings.size(); i++) {
+            if (i > 0) out.append(", ");
+            out.append('"').append(escape(strings.get(i))).append('"');
+        }
+    }
+
+    private static String escape(CharSequence s) {
+        StringBuilder escaped = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') escaped.append('\\').append(c);
+            else if (c >= 0x20 && c < 0x7f) escaped.append(c);
+            else if (c < 0x20) escaped.append(String.format("\\%03o", (int) c)); // unicode escapes of line breaks are line breaks
+            else escaped.append(String.format("\\u%04x", (int) c));
+        }
+        return escaped.toString();
+    }
+}
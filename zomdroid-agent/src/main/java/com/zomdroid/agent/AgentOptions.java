@@ -0,0 +1,56 @@
+package com.zomdroid.agent;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Options passed to the agent on the command line, e.g.
+ * <pre>
+ *   {@code -javaagent:zomdroid-agent.jar=shaderCache=/path/to/cache,someFlag}
+ * </pre>
+ * Each comma separated entry is either a {@code key=value} pair or a bare flag, which is treated as {@code key=true}.
+ * Every option can also be supplied as a {@code zomdroid.<key>} system property; agent arguments take precedence.
+ */
+public class AgentOptions {
+    private static final Map<String, String> options = new HashMap<>();
+
+    public static void parse(String args) {
+        if (args == null || args.isEmpty()) return;
+
+        for (String arg : args.split(",")) {
+            arg = arg.trim();
+            if (arg.isEmpty()) continue;
+
+            int eq = arg.indexOf('=');
+            if (eq == -1) {
+                options.put(arg, "true");
+            } else {
+                options.put(arg.substring(0, eq).trim(), arg.substring(eq + 1).trim());
+            }
+        }
+    }
+
+    public static String get(String key, String defaultValue) {
+        String value = options.get(key);
+        if (value == null) {
+            value = System.getProperty("zomdroid." + key);
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for agent option " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+}
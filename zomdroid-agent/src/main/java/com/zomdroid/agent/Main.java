@@ -1,6 +1,12 @@
 package com.zomdroid.agent;
 
 import com.zomdroid.agent.decorators.ShaderUnit;
+import com.zomdroid.agent.shader.AsyncShaderTranslator;
+import com.zomdroid.agent.shader.ShaderHotReload;
+import com.zomdroid.agent.shader.ShaderMetrics;
+import com.zomdroid.agent.shader.ShaderPack;
+import com.zomdroid.agent.shader.ShaderPrecompiler;
+import com.zomdroid.agent.shader.TranslatorWarmup;
 import net.bytebuddy.ByteBuddy;
 import net.bytebuddy.asm.Advice;
 import net.bytebuddy.dynamic.ClassFileLocator;
@@ -19,13 +25,7 @@ public class Main {
     public static void premain(String args, Instrumentation inst) {
         System.out.println("Hello from zomdroid agent");
 
-        if (args == null)
-            args = "";
-
-        String[] argsArray = args.split(",");
-        for (String arg: argsArray) {
-
-        }
+        AgentOptions.parse(args);
 
         String renderer = System.getProperty("zomdroid.renderer");
         boolean isGL4ES = renderer.equals("GL4ES");
@@ -39,6 +39,13 @@ public class Main {
                         .visit(Advice.to(ShaderUnit.processIncludeLine.class).on(named("processIncludeLine")))
                         .make()
                         .load(classLoader, ClassReloadingStrategy.of(inst));
+
+                ShaderMetrics.startFromOptions();
+                ShaderPack.startFromOptions();
+                TranslatorWarmup.startFromOptions();
+                ShaderPrecompiler.startFromOptions();
+                AsyncShaderTranslator.startFromOptions();
+                ShaderHotReload.startFromOptions();
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -1,17 +1,23 @@
 package com.zomdroid.agent.decorators;
 
-import com.zomdroid.agent.glsl.GLSLCoreToESVisitor;
-import com.zomdroid.agent.glsl.antlr.GLSLLexer;
-import com.zomdroid.agent.glsl.antlr.GLSLParser;
+import com.zomdroid.agent.AgentOptions;
+import com.zomdroid.agent.glsl.GLSLTranslator;
+import com.zomdroid.agent.glsl.Preprocessor;
+import com.zomdroid.agent.glsl.TranslationTrace;
+import com.zomdroid.agent.shader.AsyncShaderTranslator;
+import com.zomdroid.agent.glsl.TwoStageParser;
+import com.zomdroid.agent.shader.IncludeCache;
+import com.zomdroid.agent.shader.IncludeGraph;
+import com.zomdroid.agent.shader.ShaderCache;
+import com.zomdroid.agent.shader.ShaderMetrics;
+import com.zomdroid.agent.shader.ShaderPack;
+import com.zomdroid.agent.shader.ShaderPrecompiler;
+import com.zomdroid.agent.shader.ShaderSourceLoader;
 import net.bytebuddy.asm.Advice;
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.Token;
-import org.antlr.v4.runtime.tree.ParseTree;
-
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.ArrayList;
 
 
@@ -21,6 +27,11 @@ import java.util.ArrayList;
  * */
 public class ShaderUnit {
     public static class loadShaderFile {
+        @Advice.OnMethodEnter
+        public static void onEnter(@Advice.Argument(0) String shaderPath) {
+            AsyncShaderTranslator.submit(shaderPath); // joined in preProcessShaderFile
+        }
+
         @Advice.OnMethodExit
         public static void onExit(@Advice.Argument(1) ArrayList<String> additionalShadersList) {
             additionalShadersList.clear(); // additional shaders were already inlined via custom preProcessShaderFile
@@ -28,46 +39,90 @@ public class ShaderUnit {
     }
 
     public static class preProcessShaderFile {
+        /**
+         * Optional translator stages, enabled with agent options, e.g. {@code inferPrecision} or {@code minifyShaders}.
+         * Macros for resolving conditionals can be predefined with {@code shaderDefines=NAME=value;OTHER}.
+         */
+        public static final GLSLTranslator.Options translatorOptions = new GLSLTranslator.Options(
+                AgentOptions.getBoolean("inferPrecision", false),
+                AgentOptions.getBoolean("minifyShaders", false),
+                AgentOptions.getBoolean("shortenLocals", false),
+                AgentOptions.getBoolean("preprocessShaders", true),
+                Preprocessor.parseDefines(AgentOptions.get("shaderDefines", null)));
+        private static final ThreadLocal<GLSLTranslator> translators =
+                ThreadLocal.withInitial(() -> new GLSLTranslator(translatorOptions));
+
+        /**
+         * Translates shader source to GLSL ES, picking up the result of {@link ShaderPack}, {@link ShaderPrecompiler}
+         * or {@link AsyncShaderTranslator} if any of them already translated the same source.
+         */
+        public static String preprocessForGLSLES(String shaderName, String code) {
+            String packed = ShaderPack.lookup(code);
+            if (packed != null) {
+                ShaderMetrics.recordPrecompiledHit();
+                return packed;
+            }
+            String precompiled = ShaderPrecompiler.lookup(code);
+            if (precompiled != null) {
+                ShaderMetrics.recordPrecompiledHit();
+                return precompiled;
+            }
+            String translated = AsyncShaderTranslator.join(shaderName, code);
+            if (translated != null) return translated;
+            return translateCached(shaderName, code);
+        }
 
-        public static String preprocessForGLSLES(String code) {
-            //System.out.println("preprocessForGLSLES \n" + code);
-            CharStream input = CharStreams.fromString(code);
-            GLSLLexer lexer = new GLSLLexer(input);
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
-            tokens.fill();
-            GLSLParser parser = new GLSLParser(tokens);
-            ParseTree tree = parser.translation_unit();
-            GLSLCoreToESVisitor visitor = new GLSLCoreToESVisitor();
-            visitor.visit(tree);
-            StringBuilder result = new StringBuilder();
-            int lastPos = 0;
-
-            for (Token token : tokens.getTokens()) {
-                if (token.getType() == Token.EOF) {
-                    break;
+        /**
+         * Translates shader source to GLSL ES, reusing the result of a previous run from {@link ShaderCache} if possible.
+         */
+        public static String translateCached(String shaderName, String code) {
+            long start = System.nanoTime();
+            String cacheKey = ShaderCache.isEnabled() ? ShaderCache.keyOf(code, translatorOptions) : null;
+            if (cacheKey != null) {
+                String cached = ShaderCache.get(cacheKey);
+                if (cached != null) {
+                    if (ShaderMetrics.isEnabled()) {
+                        ShaderMetrics.record(new ShaderMetrics.Translation(shaderName, ShaderMetrics.Origin.CACHE, System.nanoTime() - start,
+                                0, 0, null, 0, 0, 0, 0, code.length(), cached.length(), 0, 0));
+                    }
+                    return cached;
                 }
+            }
 
-                int start = token.getStartIndex();
-                int stop = token.getStopIndex() + 1;
-
-                // append any intermediate text between last token and this one
-                if (lastPos < start) {
-                    result.append(code, lastPos, start);
-                }
+            String result = translateForGLSLES(shaderName, code);
 
-                String replacement = visitor.replacements.getOrDefault(token.getTokenIndex(), token.getText());
+            if (cacheKey != null) {
+                ShaderCache.put(cacheKey, result);
+            }
+            return result;
+        }
 
-                result.append(replacement);
+        public static String translateForGLSLES(String shaderName, String code) {
+            //System.out.println("preprocessForGLSLES \n" + code);
+            long allocatedBefore = ShaderMetrics.isEnabled() ? ShaderMetrics.currentThreadAllocatedBytes() : 0;
 
-                lastPos = stop;
+            GLSLTranslator.Result result = translators.get().translate(code);
+            if (TranslationTrace.LEVEL > TranslationTrace.OFF) {
+                TranslationTrace.dump(shaderName);
             }
-
-            // append remaining trailing code after last token
-            if (lastPos < code.length()) {
-                result.append(code.substring(lastPos));
+            if (result.predictionPath() == TwoStageParser.PredictionPath.LL) {
+                System.out.println("SLL parse of " + shaderName + " failed, parsed with full LL prediction");
+            }
+            if (!result.precisionReport().isEmpty()) {
+                System.out.println("Precision of " + shaderName + " lowered for " + result.precisionReport().size() + " locals:");
+                for (String line : result.precisionReport()) {
+                    System.out.println("\t" + line);
+                }
             }
 
-            return result.toString();
+            if (ShaderMetrics.isEnabled()) {
+                ShaderMetrics.record(new ShaderMetrics.Translation(shaderName, ShaderMetrics.Origin.TRANSLATED,
+                        result.lexNanos() + result.parseNanos() + result.visitNanos() + result.rewriteNanos(),
+                        result.lexNanos(), result.parseNanos(), result.predictionPath(), result.sllNanos(), result.llNanos(),
+                        result.visitNanos(), result.rewriteNanos(), code.length(), result.code().length(), result.edits(),
+                        ShaderMetrics.currentThreadAllocatedBytes() - allocatedBefore));
+            }
+            return result.code();
         }
 
         @Advice.OnMethodEnter
@@ -81,7 +136,7 @@ public class ShaderUnit {
                                   @Advice.Return(readOnly = false) String shaderCode) {
             if (shaderPath.endsWith(".vert") || shaderPath.endsWith(".frag")) {
                 System.out.println("Preprocessing for GLES: " + shaderPath);
-                shaderCode = preprocessForGLSLES(shaderCode);
+                shaderCode = preprocessForGLSLES(shaderPath, shaderCode);
                 additionalShadersList.clear(); // additional shaders were already hardcoded in verts and frags in custom processIncludeLine
             }
         }
@@ -96,13 +151,21 @@ public class ShaderUnit {
      */
     public static class processIncludeLine {
         public static final Class<?> clazz;
-        public static final Method preProcessShaderFileMethod;
+        /**
+         * {@code String preProcessShaderFile(String, ArrayList)} of the game's {@code ShaderUnit}, adapted to take the
+         * receiver as {@code Object}. Being a constant, calls through it are compiled like a direct call, without
+         * the argument array, access checks and reflective dispatch of {@code Method.invoke}.
+         */
+        private static final MethodHandle preProcessShaderFileHandle;
 
         static {
             try {
                 clazz = Class.forName("zombie.core.opengl.ShaderUnit");
-                preProcessShaderFileMethod = clazz.getDeclaredMethod("preProcessShaderFile", String.class, ArrayList.class);
-            } catch (ClassNotFoundException | NoSuchMethodException e) {
+                MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(clazz, MethodHandles.lookup());
+                preProcessShaderFileHandle = lookup
+                        .findVirtual(clazz, "preProcessShaderFile", MethodType.methodType(String.class, String.class, ArrayList.class))
+                        .asType(MethodType.methodType(String.class, Object.class, String.class, ArrayList.class));
+            } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
                 throw new RuntimeException(e);
             }
         }
@@ -132,14 +195,33 @@ public class ShaderUnit {
             if (additionalShadersList.size() == additionalShadersCount) return; // no new files were added
 
             String additionalShaderPath = additionalShadersList.get(additionalShadersList.size() - 1); // last added shader file is what we need
+            IncludeGraph.recordGameInclude(shaderPath, additionalShaderPath);
 
+            shaderCodeBuilder.append(loadIncludeUnit(thiz, additionalShaderPath + ".glsl", additionalShadersList));
+        }
+
+        /**
+         * Preprocesses an include unit with the game's {@code preProcessShaderFile}, or takes it from {@link IncludeCache}
+         * if it was already preprocessed for another shader and hasn't changed since.
+         *
+         * @return code of the include unit without its version directive, since we are inlining
+         */
+        public static String loadIncludeUnit(Object shaderUnit, String includePath, ArrayList<String> additionalShadersList) {
+            String cached = IncludeCache.get(includePath);
+            if (cached != null) return cached;
+
+            String code = null;
+            IncludeCache.beginLoad();
             try {
-                String includePath = additionalShaderPath + ".glsl";
-                String additionalShaderCode = (String) preProcessShaderFileMethod.invoke(thiz, includePath, additionalShadersList);
-                additionalShaderCode = additionalShaderCode.replaceFirst("(?m)^\\s*#version\\s+.*\\R?", ""); // remove version directive, since we are inlining
-                shaderCodeBuilder.append(additionalShaderCode);
-            } catch (IllegalAccessException | InvocationTargetException e) {
-                throw new RuntimeException(e);
+                code = (String) preProcessShaderFileHandle.invokeExact(shaderUnit, includePath, additionalShadersList);
+                code = ShaderSourceLoader.stripVersion(code);
+                return code;
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            } finally {
+                IncludeCache.endLoad(includePath, code);
             }
         }
     }
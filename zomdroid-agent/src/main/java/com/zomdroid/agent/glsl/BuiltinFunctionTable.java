@@ -0,0 +1,65 @@
+package com.zomdroid.agent.glsl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Built-in functions of a GLSL profile, precomputed at build time from the declarations in {@code src/main/builtins}
+ * by {@code src/build/java/BuiltinTableGenerator.java}, so loading them involves no parsing or resource I/O.
+ * <p>
+ * Each profile is a generated class holding the type names, one function name per source declaration, and
+ * the overloads of every declaration encoded as characters of a single string: number of overloads, then for each
+ * overload the return type index, number of parameters and parameter type indices.
+ * To add a profile, drop its declarations next to {@code GLSL_ES_2_BUILTINS} and add a constant here.
+ */
+public final class BuiltinFunctionTable {
+    public static final BuiltinFunctionTable GLSL_ES_2 = new BuiltinFunctionTable(GlslEs2Builtins.TYPES, GlslEs2Builtins.NAMES, GlslEs2Builtins.SIGNATURES);
+
+    /**
+     * A line of the builtin profile with its generic types expanded.
+     */
+    public record Declaration(String name, List<GLSLCoreToESVisitor.SymbolTable.FunctionRecord> overloads) {
+    }
+
+    private final String[] types;
+    private final String[] names;
+    private final String signatures;
+
+    private BuiltinFunctionTable(String[] types, String[] names, String signatures) {
+        this.types = types;
+        this.names = names;
+        this.signatures = signatures;
+    }
+
+    /**
+     * @param typesByName built-in types, types missing from it are resolved to {@code null}
+     * @return declarations in the order they appear in the profile
+     */
+    public List<Declaration> declarations(Map<String, GLSLType> typesByName) {
+        GLSLType[] resolvedTypes = new GLSLType[types.length];
+        for (int i = 0; i < types.length; i++) {
+            resolvedTypes[i] = typesByName.get(types[i]);
+        }
+
+        List<Declaration> declarations = new ArrayList<>(names.length);
+        int pos = 0;
+        for (String name : names) {
+            int overloadCount = signatures.charAt(pos++);
+            List<GLSLCoreToESVisitor.SymbolTable.FunctionRecord> overloads = new ArrayList<>(overloadCount);
+            for (int o = 0; o < overloadCount; o++) {
+                GLSLType returnType = resolvedTypes[signatures.charAt(pos++)];
+                GLSLType[] paramTypes = new GLSLType[signatures.charAt(pos++)];
+                for (int p = 0; p < paramTypes.length; p++) {
+                    paramTypes[p] = resolvedTypes[signatures.charAt(pos++)];
+                }
+                overloads.add(new GLSLCoreToESVisitor.SymbolTable.FunctionRecord(name, returnType,
+                        Collections.unmodifiableList(Arrays.asList(paramTypes))));
+            }
+            declarations.add(new Declaration(name, overloads));
+        }
+        return declarations;
+    }
+}
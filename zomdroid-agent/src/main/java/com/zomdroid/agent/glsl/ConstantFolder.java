@@ -0,0 +1,645 @@
+package com.zomdroid.agent.glsl;
+
+import com.zomdroid.agent.glsl.antlr.GLSLLexer;
+import com.zomdroid.agent.glsl.antlr.GLSLParser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Evaluates constant expressions and replaces each of them with its value, e.g. {@code uniform int uni = 1 + 2;}
+ * becomes {@code uniform int uni = 3;}, which gl4es can process, and {@code color * (0.5 * 2.0)} becomes
+ * {@code color * 1.0}, which saves the GPU an instruction per fragment.
+ * <p>
+ * Literals, {@code const} variables with a constant initializer, arithmetic, comparison and logical operators,
+ * {@code ?:}, scalar and vector constructors, swizzles and constant indexing of scalar and vector values are folded.
+ * Matrices, arrays, structs and built-in function calls are left to the driver. Arithmetic follows desktop GLSL,
+ * i.e. integer operands are converted to float when mixed with floats and integer division truncates, and floats are
+ * evaluated in single precision. Results which aren't finite or don't fit an {@code int} are not folded.
+ * <p>
+ * Only whole expressions are replaced, so an expression with a non constant part keeps its structure and only
+ * its constant subexpressions are folded. Integer results in a float context of {@link GLSLCoreToESVisitor} are
+ * written as floats, as the visitor would have done with the literals they replace.
+ */
+public class ConstantFolder {
+    enum Kind {
+        BOOL, INT, FLOAT
+    }
+
+    /**
+     * Value of a constant scalar or vector expression.
+     *
+     * @param folded whether the expression is more than a literal, i.e. replacing it with its value changes the source
+     */
+    record Value(Kind kind, double[] components, boolean folded) {
+        int size() {
+            return components.length;
+        }
+
+        double component(int i) {
+            return components.length == 1 ? components[0] : components[i];
+        }
+
+        Value withFolded(boolean folded) {
+            return folded == this.folded ? this : new Value(kind, components, folded);
+        }
+
+        boolean isBoolScalar() {
+            return kind == Kind.BOOL && components.length == 1;
+        }
+    }
+
+    /** Marks a variable which shadows constants of outer scopes but isn't constant itself. */
+    private static final Value NOT_CONSTANT = new Value(Kind.BOOL, new double[0], false);
+    private static final String SWIZZLE_SETS = "xyzw rgba stpq";
+
+    private final ShaderIR ir;
+    private final IntPredicate floatContext;
+    private final TokenRewriter rewriter;
+    private final Deque<Map<String, Value>> scopes = new ArrayDeque<>();
+    private int folds = 0;
+
+    /**
+     * @param floatContext whether a node of the IR is in a float context, as resolved by {@link GLSLCoreToESVisitor}
+     */
+    public ConstantFolder(ShaderIR ir, IntPredicate floatContext, TokenRewriter rewriter) {
+        this.ir = ir;
+        this.floatContext = floatContext;
+        this.rewriter = rewriter;
+        scopes.push(new HashMap<>());
+    }
+
+    /**
+     * Folds the constant expressions of the translation unit of the IR into the rewriter.
+     */
+    public void fold() {
+        visit(0);
+    }
+
+    /**
+     * @return number of replaced expressions
+     */
+    public int getFolds() {
+        return folds;
+    }
+
+    /**
+     * @return value of the node if it's a constant expression, {@code null} otherwise
+     */
+    private Value visit(int node) {
+        if (ir.isToken(node)) return null;
+
+        return switch (ir.rule(node)) {
+            // parameters are declared by visitFunction_definition, prototypes have nothing to fold
+            case GLSLParser.RULE_function_prototype -> null;
+            case GLSLParser.RULE_function_definition -> visitFunction_definition(node);
+            case GLSLParser.RULE_compound_statement, GLSLParser.RULE_iteration_statement -> {
+                scopes.push(new HashMap<>());
+                visitChildren(node);
+                scopes.pop();
+                yield null;
+            }
+            case GLSLParser.RULE_condition -> visitCondition(node);
+            case GLSLParser.RULE_init_declarator_list -> visitInit_declarator_list(node);
+            case GLSLParser.RULE_expression -> visitExpression(node);
+            case GLSLParser.RULE_assignment_expression -> visitAssignment_expression(node);
+            case GLSLParser.RULE_constant_expression -> visitConstant_expression(node);
+            case GLSLParser.RULE_binary_expression -> visitBinary_expression(node);
+            case GLSLParser.RULE_unary_expression -> visitUnary_expression(node);
+            case GLSLParser.RULE_postfix_expression -> visitPostfix_expression(node);
+            case GLSLParser.RULE_primary_expression -> visitPrimary_expression(node);
+            default -> visitChildren(node);
+        };
+    }
+
+    private Value visitChildren(int node) {
+        for (int child = ir.firstChild(node); child != -1; child = ir.nextSibling(child)) {
+            replace(child, visit(child));
+        }
+        return null;
+    }
+
+    // scopes
+
+    private Value visitFunction_definition(int node) {
+        scopes.push(new HashMap<>());
+        int prototype = ir.childOfRule(node, GLSLParser.RULE_function_prototype);
+        int parameters = ir.childOfRule(prototype, GLSLParser.RULE_function_parameters);
+        if (parameters != -1) {
+            for (int parameter = ir.firstChild(parameters); parameter != -1; parameter = ir.nextSibling(parameter)) {
+                int declarator = ir.childOfRule(parameter, GLSLParser.RULE_parameter_declarator);
+                if (declarator == -1) continue; // a comma, or a parameter without a name
+                int identifier = ir.childOfToken(declarator, GLSLLexer.IDENTIFIER);
+                if (identifier != -1) scopes.peek().put(ir.text(identifier), NOT_CONSTANT);
+            }
+        }
+        visit(ir.childOfRule(node, GLSLParser.RULE_compound_statement_no_new_scope));
+        scopes.pop();
+        return null;
+    }
+
+    private Value visitCondition(int node) {
+        visitChildren(node);
+        int identifier = ir.childOfToken(node, GLSLLexer.IDENTIFIER);
+        if (identifier != -1) scopes.peek().put(ir.text(identifier), NOT_CONSTANT);
+        return null;
+    }
+
+    private Value visitInit_declarator_list(int node) {
+        int first = ir.childOfRule(node, GLSLParser.RULE_single_declaration);
+        int type = ir.childOfRule(first, GLSLParser.RULE_fully_specified_type);
+        visit(type);
+
+        boolean isConst = isConst(ir.childOfRule(type, GLSLParser.RULE_type_qualifier));
+        int typeSpecifier = ir.childOfRule(type, GLSLParser.RULE_type_specifier);
+        String typeName = ir.childOfRule(typeSpecifier, GLSLParser.RULE_array_specifier) == -1
+                ? ir.text(ir.childOfRule(typeSpecifier, GLSLParser.RULE_type_specifier_nonarray)) : null;
+
+        declare(ir.childOfRule(first, GLSLParser.RULE_typeless_declaration), isConst, typeName);
+        for (int declaration = ir.firstChild(node); declaration != -1; declaration = ir.nextSibling(declaration)) {
+            if (ir.rule(declaration) == GLSLParser.RULE_typeless_declaration) declare(declaration, isConst, typeName);
+        }
+        return null;
+    }
+
+    private void declare(int node, boolean isConst, String typeName) {
+        if (node == -1) return;
+        int identifier = ir.childOfToken(node, GLSLLexer.IDENTIFIER);
+        if (identifier == -1) return;
+        int arraySpecifier = ir.childOfRule(node, GLSLParser.RULE_array_specifier);
+        if (arraySpecifier != -1) visit(arraySpecifier);
+
+        Value value = null;
+        int initializer = ir.childOfRule(node, GLSLParser.RULE_initializer);
+        if (initializer != -1) {
+            int expression = ir.childOfRule(initializer, GLSLParser.RULE_assignment_expression);
+            if (expression != -1) {
+                Value expressionValue = visit(expression);
+                value = convert(expressionValue, typeName);
+                replace(expression, value != null ? value : expressionValue);
+            } else {
+                visit(initializer);
+            }
+        }
+
+        // a variable is in scope only after its initializer
+        boolean isConstant = isConst && value != null && arraySpecifier == -1;
+        scopes.peek().put(ir.text(identifier), isConstant ? value : NOT_CONSTANT);
+    }
+
+    private boolean isConst(int qualifiers) {
+        if (qualifiers == -1) return false;
+        for (int qualifier = ir.firstChild(qualifiers); qualifier != -1; qualifier = ir.nextSibling(qualifier)) {
+            int storage = ir.childOfRule(qualifier, GLSLParser.RULE_storage_qualifier);
+            if (storage != -1 && ir.childOfToken(storage, GLSLLexer.CONST) != -1) return true;
+        }
+        return false;
+    }
+
+    // expressions
+
+    private Value visitExpression(int node) {
+        if (ir.childOfToken(node, GLSLLexer.COMMA) == -1) return visit(ir.childOfRule(node, GLSLParser.RULE_assignment_expression));
+        return visitChildren(node);
+    }
+
+    private Value visitAssignment_expression(int node) {
+        int constant = ir.childOfRule(node, GLSLParser.RULE_constant_expression);
+        if (constant != -1) return visit(constant);
+
+        visit(ir.childOfRule(node, GLSLParser.RULE_unary_expression)); // assigned to, so never replaced
+        int value = ir.childOfRule(node, GLSLParser.RULE_assignment_expression);
+        replace(value, visit(value));
+        return null;
+    }
+
+    private Value visitConstant_expression(int node) {
+        int conditionNode = ir.childOfRule(node, GLSLParser.RULE_binary_expression);
+        if (ir.childOfToken(node, GLSLLexer.QUESTION) == -1) return visit(conditionNode);
+
+        int ifTrueNode = ir.childOfRule(node, GLSLParser.RULE_expression);
+        int ifFalseNode = ir.childOfRule(node, GLSLParser.RULE_assignment_expression);
+        Value condition = visit(conditionNode);
+        Value ifTrue = visit(ifTrueNode);
+        Value ifFalse = visit(ifFalseNode);
+        if (condition != null && condition.isBoolScalar() && ifTrue != null && ifFalse != null
+                && ifTrue.kind() == ifFalse.kind() && ifTrue.size() == ifFalse.size()) {
+            return (condition.component(0) != 0 ? ifTrue : ifFalse).withFolded(true);
+        }
+        replace(conditionNode, condition);
+        replace(ifTrueNode, ifTrue);
+        replace(ifFalseNode, ifFalse);
+        return null;
+    }
+
+    private Value visitBinary_expression(int node) {
+        int unaryExpression = ir.childOfRule(node, GLSLParser.RULE_unary_expression);
+        if (unaryExpression != -1) return visit(unaryExpression);
+
+        int left = ir.firstChild(node);
+        int operator = ir.nextSibling(left);
+        int right = ir.nextSibling(operator);
+        Value a = visit(left);
+        Value b = visit(right);
+
+        Value result = a != null && b != null ? binary(ir.tokenType(operator), a, b) : null;
+        if (result == null) {
+            replace(left, a);
+            replace(right, b);
+        }
+        return result;
+    }
+
+    private Value visitUnary_expression(int node) {
+        int postfixExpression = ir.childOfRule(node, GLSLParser.RULE_postfix_expression);
+        if (postfixExpression != -1) return visit(postfixExpression);
+
+        int operandNode = ir.childOfRule(node, GLSLParser.RULE_unary_expression);
+        Value operand = visit(operandNode);
+        int unaryOperator = ir.childOfRule(node, GLSLParser.RULE_unary_operator);
+        if (unaryOperator == -1) return null; // ++ and --, the operand is assigned to
+
+        Value result = operand != null ? unary(ir.tokenType(ir.firstChild(unaryOperator)), operand) : null;
+        if (result == null) replace(operandNode, operand);
+        return result;
+    }
+
+    private Value visitPostfix_expression(int node) {
+        int primaryExpression = ir.childOfRule(node, GLSLParser.RULE_primary_expression);
+        if (primaryExpression != -1) return visit(primaryExpression);
+
+        int parameters = ir.childOfRule(node, GLSLParser.RULE_function_call_parameters);
+        int typeSpecifier = ir.childOfRule(node, GLSLParser.RULE_type_specifier);
+        if (typeSpecifier != -1) {
+            List<Value> arguments = new ArrayList<>();
+            for (int argument = firstArgument(parameters); argument != -1; argument = nextArgument(argument)) {
+                arguments.add(visit(argument));
+            }
+            Value result = ir.childOfRule(typeSpecifier, GLSLParser.RULE_array_specifier) == -1
+                    ? construct(ir.text(typeSpecifier), arguments) : null;
+            if (result == null) {
+                int i = 0;
+                for (int argument = firstArgument(parameters); argument != -1; argument = nextArgument(argument)) {
+                    replace(argument, arguments.get(i++));
+                }
+            }
+            return result;
+        }
+
+        int base = ir.childOfRule(node, GLSLParser.RULE_postfix_expression);
+        if (ir.childOfToken(node, GLSLLexer.LEFT_PAREN) != -1) {
+            // function call, the callee is a name rather than a value
+            for (int argument = firstArgument(parameters); argument != -1; argument = nextArgument(argument)) {
+                replace(argument, visit(argument));
+            }
+            return null;
+        }
+
+        Value value = base != -1 ? visit(base) : null;
+        Value result = null;
+        if (ir.childOfToken(node, GLSLLexer.LEFT_BRACKET) != -1) {
+            int indexNode = ir.childOfRule(ir.childOfRule(node, GLSLParser.RULE_integer_expression), GLSLParser.RULE_expression);
+            Value index = visit(indexNode);
+            if (value != null && index != null) result = index(value, index);
+            if (result == null) replace(indexNode, index);
+        } else if (ir.childOfToken(node, GLSLLexer.DOT) != -1) {
+            if (value != null) result = swizzle(value, ir.text(ir.childOfRule(node, GLSLParser.RULE_field_selection)));
+        } else {
+            value = null; // ++ and --, the operand is assigned to
+        }
+
+        if (result == null && base != -1) replace(base, value);
+        return result;
+    }
+
+    private Value visitPrimary_expression(int node) {
+        int variable = ir.childOfRule(node, GLSLParser.RULE_variable_identifier);
+        if (variable != -1) return lookup(ir.text(variable));
+        int expression = ir.childOfRule(node, GLSLParser.RULE_expression);
+        if (expression != -1) return visit(expression);
+
+        int literal = ir.firstChild(node);
+        try {
+            return switch (ir.tokenType(literal)) {
+                case GLSLLexer.TRUE -> new Value(Kind.BOOL, new double[]{1}, false);
+                case GLSLLexer.FALSE -> new Value(Kind.BOOL, new double[]{0}, false);
+                case GLSLLexer.INTCONSTANT -> new Value(Kind.INT, new double[]{Integer.decode(ir.text(literal))}, false);
+                case GLSLLexer.FLOATCONSTANT -> {
+                    float value = Float.parseFloat(ir.text(literal));
+                    yield Float.isFinite(value) ? new Value(Kind.FLOAT, new double[]{value}, false) : null;
+                }
+                default -> null;
+            };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Value lookup(String name) {
+        for (Map<String, Value> scope : scopes) {
+            Value value = scope.get(name);
+            if (value != null) return value == NOT_CONSTANT ? null : value.withFolded(true);
+        }
+        return null;
+    }
+
+    private int firstArgument(int parameters) {
+        if (parameters == -1) return -1;
+        int child = ir.firstChild(parameters);
+        return child == -1 || ir.rule(child) == GLSLParser.RULE_assignment_expression ? child : nextArgument(child);
+    }
+
+    private int nextArgument(int argument) {
+        for (int child = ir.nextSibling(argument); child != -1; child = ir.nextSibling(child)) {
+            if (ir.rule(child) == GLSLParser.RULE_assignment_expression) return child;
+        }
+        return -1;
+    }
+
+    // evaluation
+
+    private static Value unary(int operator, Value operand) {
+        switch (operator) {
+            case GLSLLexer.PLUS:
+                return operand.kind() != Kind.BOOL ? operand : null;
+            case GLSLLexer.DASH: {
+                if (operand.kind() == Kind.BOOL) return null;
+                double[] result = new double[operand.size()];
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = operand.kind() == Kind.INT ? -operand.component(i) : (float) -operand.component(i);
+                    if (operand.kind() == Kind.INT && !fitsInt(result[i])) return null;
+                }
+                return new Value(operand.kind(), result, operand.folded());
+            }
+            case GLSLLexer.BANG:
+                if (!operand.isBoolScalar()) return null;
+                return new Value(Kind.BOOL, new double[]{operand.component(0) != 0 ? 0 : 1}, true);
+            default:
+                return null;
+        }
+    }
+
+    private static Value binary(int operator, Value a, Value b) {
+        switch (operator) {
+            case GLSLLexer.PLUS:
+            case GLSLLexer.DASH:
+            case GLSLLexer.STAR:
+            case GLSLLexer.SLASH:
+                return arithmetic(operator, a, b);
+            case GLSLLexer.LEFT_ANGLE:
+            case GLSLLexer.RIGHT_ANGLE:
+            case GLSLLexer.LE_OP:
+            case GLSLLexer.GE_OP: {
+                if (a.kind() == Kind.BOOL || b.kind() == Kind.BOOL || a.size() != 1 || b.size() != 1) return null;
+                double x = a.component(0);
+                double y = b.component(0);
+                boolean result = switch (operator) {
+                    case GLSLLexer.LEFT_ANGLE -> x < y;
+                    case GLSLLexer.RIGHT_ANGLE -> x > y;
+                    case GLSLLexer.LE_OP -> x <= y;
+                    default -> x >= y;
+                };
+                return bool(result);
+            }
+            case GLSLLexer.EQ_OP:
+            case GLSLLexer.NE_OP: {
+                if (a.size() != b.size() || (a.kind() == Kind.BOOL) != (b.kind() == Kind.BOOL)) return null;
+                boolean equal = true;
+                for (int i = 0; i < a.size(); i++) {
+                    equal &= a.component(i) == b.component(i);
+                }
+                return bool(equal == (operator == GLSLLexer.EQ_OP));
+            }
+            case GLSLLexer.AND_OP:
+            case GLSLLexer.OR_OP:
+            case GLSLLexer.XOR_OP: {
+                if (!a.isBoolScalar() || !b.isBoolScalar()) return null;
+                boolean x = a.component(0) != 0;
+                boolean y = b.component(0) != 0;
+                return bool(switch (operator) {
+                    case GLSLLexer.AND_OP -> x && y;
+                    case GLSLLexer.OR_OP -> x || y;
+                    default -> x ^ y;
+                });
+            }
+            default:
+                return null; // bitwise operators and % are reserved in GLSL ES 1.00
+        }
+    }
+
+    private static Value arithmetic(int operator, Value a, Value b) {
+        if (a.kind() == Kind.BOOL || b.kind() == Kind.BOOL) return null;
+        if (a.size() != b.size() && a.size() != 1 && b.size() != 1) return null;
+
+        Kind kind = a.kind() == Kind.FLOAT || b.kind() == Kind.FLOAT ? Kind.FLOAT : Kind.INT;
+        double[] result = new double[Math.max(a.size(), b.size())];
+        for (int i = 0; i < result.length; i++) {
+            double x = a.component(i);
+            double y = b.component(i);
+            if (kind == Kind.INT) {
+                if (operator == GLSLLexer.SLASH && y == 0) return null;
+                result[i] = switch (operator) {
+                    case GLSLLexer.PLUS -> x + y;
+                    case GLSLLexer.DASH -> x - y;
+                    case GLSLLexer.STAR -> x * y;
+                    default -> (long) x / (long) y;
+                };
+                if (!fitsInt(result[i])) return null;
+            } else {
+                float fx = (float) x;
+                float fy = (float) y;
+                float value = switch (operator) {
+                    case GLSLLexer.PLUS -> fx + fy;
+                    case GLSLLexer.DASH -> fx - fy;
+                    case GLSLLexer.STAR -> fx * fy;
+                    default -> fx / fy;
+                };
+                if (!Float.isFinite(value)) return null;
+                result[i] = value;
+            }
+        }
+        return new Value(kind, result, true);
+    }
+
+    private static Value construct(String typeName, List<Value> arguments) {
+        Value shape = shapeOf(typeName);
+        if (shape == null || arguments.isEmpty() || arguments.contains(null)) return null;
+        Kind kind = shape.kind();
+        int size = shape.size();
+
+        double[] components = new double[size];
+        if (size == 1 || (arguments.size() == 1 && arguments.get(0).size() == 1)) {
+            // conversion of the first component, or a vector with all components set to a scalar
+            if (arguments.size() != 1) return null;
+            Arrays.fill(components, convert(arguments.get(0).component(0), kind));
+        } else if (arguments.size() == 1) {
+            Value vector = arguments.get(0);
+            if (vector.size() < size) return null;
+            for (int i = 0; i < size; i++) {
+                components[i] = convert(vector.component(i), kind);
+            }
+        } else {
+            int i = 0;
+            for (Value argument : arguments) {
+                for (int c = 0; c < argument.size(); c++) {
+                    if (i == size) return null;
+                    components[i++] = convert(argument.component(c), kind);
+                }
+            }
+            if (i != size) return null;
+        }
+
+        boolean folded = size == 1;
+        for (Value argument : arguments) {
+            folded |= argument.folded();
+        }
+        return new Value(kind, components, folded);
+    }
+
+    /**
+     * Converts a value to the type of a declared variable.
+     *
+     * @return converted value, or {@code null} if the type isn't a scalar or vector of the same size
+     */
+    private static Value convert(Value value, String typeName) {
+        if (value == null || typeName == null) return null;
+        Value shape = shapeOf(typeName);
+        if (shape == null || shape.size() != value.size()) return null;
+        if (shape.kind() == value.kind()) return value;
+
+        double[] components = new double[value.size()];
+        for (int i = 0; i < components.length; i++) {
+            components[i] = convert(value.component(i), shape.kind());
+        }
+        return new Value(shape.kind(), components, value.folded());
+    }
+
+    private static double convert(double component, Kind kind) {
+        return switch (kind) {
+            case BOOL -> component != 0 ? 1 : 0;
+            case INT -> (int) component;
+            case FLOAT -> (float) component;
+        };
+    }
+
+    /**
+     * @return a zero value of the scalar or vector type, or {@code null} for any other type
+     */
+    private static Value shapeOf(String typeName) {
+        switch (typeName) {
+            case "float":
+                return new Value(Kind.FLOAT, new double[1], false);
+            case "int":
+                return new Value(Kind.INT, new double[1], false);
+            case "bool":
+                return new Value(Kind.BOOL, new double[1], false);
+        }
+        Kind kind;
+        String prefix;
+        if (typeName.startsWith("vec")) {
+            kind = Kind.FLOAT;
+            prefix = "vec";
+        } else if (typeName.startsWith("ivec")) {
+            kind = Kind.INT;
+            prefix = "ivec";
+        } else if (typeName.startsWith("bvec")) {
+            kind = Kind.BOOL;
+            prefix = "bvec";
+        } else {
+            return null;
+        }
+        if (typeName.length() != prefix.length() + 1) return null;
+        int size = typeName.charAt(prefix.length()) - '0';
+        return size >= 2 && size <= 4 ? new Value(kind, new double[size], false) : null;
+    }
+
+    private static Value index(Value vector, Value index) {
+        if (vector.size() == 1 || index.kind() != Kind.INT || index.size() != 1) return null;
+        int i = (int) index.component(0);
+        if (i < 0 || i >= vector.size()) return null;
+        return new Value(vector.kind(), new double[]{vector.component(i)}, true);
+    }
+
+    private static Value swizzle(Value vector, String fields) {
+        if (fields.isEmpty() || fields.length() > 4) return null;
+        int first = SWIZZLE_SETS.indexOf(fields.charAt(0));
+        if (first < 0) return null;
+        int set = first / 5;
+
+        double[] components = new double[fields.length()];
+        for (int i = 0; i < components.length; i++) {
+            int position = SWIZZLE_SETS.indexOf(fields.charAt(i), set * 5);
+            int component = position - set * 5;
+            if (position < 0 || component >= 4 || component >= vector.size()) return null;
+            components[i] = vector.component(component);
+        }
+        return new Value(vector.kind(), components, true);
+    }
+
+    private static Value bool(boolean value) {
+        return new Value(Kind.BOOL, new double[]{value ? 1 : 0}, true);
+    }
+
+    private static boolean fitsInt(double value) {
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    // output
+
+    /**
+     * Replaces {@code node} with {@code value} if it's a folded constant.
+     */
+    private void replace(int node, Value value) {
+        if (value == null || !value.folded() || ir.isToken(node)) return;
+
+        boolean asFloat = floatContext.test(node);
+        String text = format(value, asFloat);
+        int parent = ir.rule(ir.parent(node));
+        boolean isOperand = parent == GLSLParser.RULE_binary_expression
+                || parent == GLSLParser.RULE_unary_expression
+                || parent == GLSLParser.RULE_postfix_expression;
+        if (isOperand && text.startsWith("-")) text = "(" + text + ")";
+
+        rewriter.replace(ir.start(node), ir.stop(node), text);
+        folds++;
+    }
+
+    private static String format(Value value, boolean asFloat) {
+        if (value.size() == 1) {
+            Kind kind = value.kind() == Kind.INT && asFloat ? Kind.FLOAT : value.kind();
+            return format(value.component(0), kind);
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append(switch (value.kind()) {
+            case BOOL -> "bvec";
+            case INT -> "ivec";
+            case FLOAT -> "vec";
+        }).append(value.size()).append('(');
+        boolean isSplat = true;
+        for (int i = 1; i < value.size(); i++) {
+            isSplat &= value.component(i) == value.component(0);
+        }
+        if (isSplat) return text.append(format(value.component(0), value.kind())).append(')').toString();
+
+        for (int i = 0; i < value.size(); i++) {
+            if (i > 0) text.append(", ");
+            text.append(format(value.component(i), value.kind()));
+        }
+        return text.append(')').toString();
+    }
+
+    private static String format(double component, Kind kind) {
+        return switch (kind) {
+            case BOOL -> component != 0 ? "true" : "false";
+            case INT -> Long.toString((long) component);
+            case FLOAT -> Float.toString((float) component);
+        };
+    }
+}
@@ -0,0 +1,198 @@
+package com.zomdroid.agent.glsl;
+
+import com.zomdroid.agent.glsl.antlr.GLSLLexer;
+import com.zomdroid.agent.glsl.antlr.GLSLParser;
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes function definitions and prototypes, global variables and struct types that {@code main} can't reach.
+ * <p>
+ * The game inlines whole include units into every shader, so most shaders carry helpers they never call,
+ * which gl4es and the driver would otherwise parse and compile for nothing.
+ * <p>
+ * Reachability is computed by name over the top level declarations: a declaration is live if any of the names
+ * it declares is referenced by {@code main} or by another live declaration. This is conservative, e.g. all overloads
+ * of a function are kept once one of them is called and a local variable named like a global keeps the global.
+ * Preprocessor directives are invisible to the parser, so identifiers used in them count as references, and a
+ * declaration that has a directive inside is never removed. Shader inputs and outputs are always kept, as removing
+ * them could break linking with the other stage.
+ */
+public class DeadCodeEliminator {
+    private static final String ENTRY_POINT = "main";
+
+    /**
+     * A top level declaration, with the names it declares and the identifiers it references.
+     */
+    private static final class Unit {
+        final int node;
+        final List<String> declaredNames = new ArrayList<>();
+        final Set<String> references = new HashSet<>();
+        boolean removable;
+        boolean live;
+
+        Unit(int node) {
+            this.node = node;
+        }
+    }
+
+    /**
+     * Collects deletions of everything unreachable from {@code main} into {@code rewriter}.
+     * Does nothing if the shader has no {@code main}.
+     *
+     * @param tokens all tokens of the source, as returned by {@code BufferedTokenStream.getTokens()}
+     * @return number of removed declarations
+     */
+    public static int eliminate(ShaderIR ir, List<Token> tokens, TokenRewriter rewriter) {
+        List<Unit> units = new ArrayList<>();
+        Map<String, List<Unit>> declarations = new HashMap<>();
+        for (int node = ir.firstChild(0); node != -1; node = ir.nextSibling(node)) {
+            if (ir.rule(node) != GLSLParser.RULE_external_declaration) continue;
+            Unit unit = new Unit(node);
+            collectDeclaredNames(ir, unit);
+            collectReferences(ir, unit, tokens);
+            units.add(unit);
+            for (String name : unit.declaredNames) {
+                declarations.computeIfAbsent(name, k -> new ArrayList<>()).add(unit);
+            }
+        }
+        if (!declarations.containsKey(ENTRY_POINT)) return 0;
+
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add(ENTRY_POINT);
+        for (Token token : tokens) {
+            if (token.getChannel() == GLSLLexer.DIRECTIVES) addIdentifiers(token.getText(), pending);
+        }
+        for (Unit unit : units) {
+            if (!unit.removable) pending.addAll(unit.references);
+        }
+
+        Set<String> reached = new HashSet<>();
+        while (!pending.isEmpty()) {
+            String name = pending.poll();
+            if (!reached.add(name)) continue;
+            List<Unit> declaring = declarations.get(name);
+            if (declaring == null) continue;
+            for (Unit unit : declaring) {
+                if (unit.live) continue;
+                unit.live = true;
+                pending.addAll(unit.references);
+            }
+        }
+
+        int removed = 0;
+        for (Unit unit : units) {
+            if (!unit.removable || unit.live) continue;
+            int start = ir.start(unit.node);
+            int stop = ir.stop(unit.node);
+            // take the line break after the declaration along, so no empty line is left behind
+            if (stop + 1 < tokens.size() && tokens.get(stop + 1).getType() == GLSLLexer.WHITE_SPACE) stop++;
+            rewriter.delete(start, stop);
+            removed++;
+        }
+        return removed;
+    }
+
+    private static void collectDeclaredNames(ShaderIR ir, Unit unit) {
+        int function = ir.childOfRule(unit.node, GLSLParser.RULE_function_definition);
+        if (function != -1) {
+            addName(ir, unit, ir.childOfRule(function, GLSLParser.RULE_function_prototype));
+            unit.removable = !unit.declaredNames.isEmpty();
+            return;
+        }
+
+        int declaration = ir.childOfRule(unit.node, GLSLParser.RULE_declaration);
+        if (declaration == -1) return;
+
+        int prototype = ir.childOfRule(declaration, GLSLParser.RULE_function_prototype);
+        if (prototype != -1) {
+            addName(ir, unit, prototype);
+            unit.removable = !unit.declaredNames.isEmpty();
+            return;
+        }
+
+        int declarators = ir.childOfRule(declaration, GLSLParser.RULE_init_declarator_list);
+        if (declarators == -1) return; // precision statements, interface blocks and the like
+
+        int first = ir.childOfRule(declarators, GLSLParser.RULE_single_declaration);
+        int type = ir.childOfRule(first, GLSLParser.RULE_fully_specified_type);
+        if (!isRemovableQualifier(ir, ir.childOfRule(type, GLSLParser.RULE_type_qualifier))) return;
+
+        int typeSpecifier = ir.childOfRule(ir.childOfRule(type, GLSLParser.RULE_type_specifier), GLSLParser.RULE_type_specifier_nonarray);
+        int struct = ir.childOfRule(typeSpecifier, GLSLParser.RULE_struct_specifier);
+        if (struct != -1) addName(ir, unit, struct);
+        int typeless = ir.childOfRule(first, GLSLParser.RULE_typeless_declaration);
+        if (typeless != -1) addName(ir, unit, typeless);
+        for (int next = ir.firstChild(declarators); next != -1; next = ir.nextSibling(next)) {
+            if (ir.rule(next) == GLSLParser.RULE_typeless_declaration) addName(ir, unit, next);
+        }
+        unit.removable = !unit.declaredNames.isEmpty();
+    }
+
+    /**
+     * @param qualifier type_qualifier node, {@code -1} if there is none
+     * @return whether a global with these qualifiers is private to the shader, i.e. it's a plain global,
+     * a constant or a uniform
+     */
+    private static boolean isRemovableQualifier(ShaderIR ir, int qualifier) {
+        if (qualifier == -1) return true;
+        for (int single = ir.firstChild(qualifier); single != -1; single = ir.nextSibling(single)) {
+            if (ir.rule(single) != GLSLParser.RULE_single_type_qualifier) continue;
+            if (ir.childOfRule(single, GLSLParser.RULE_precision_qualifier) != -1) continue;
+            int storage = ir.childOfRule(single, GLSLParser.RULE_storage_qualifier);
+            if (storage == -1 || (ir.childOfToken(storage, GLSLLexer.CONST) == -1
+                    && ir.childOfToken(storage, GLSLLexer.UNIFORM) == -1)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the name declared by a node, i.e. its identifier child, if it has one.
+     */
+    private static void addName(ShaderIR ir, Unit unit, int declarator) {
+        int identifier = ir.childOfToken(declarator, GLSLLexer.IDENTIFIER);
+        if (identifier != -1) unit.declaredNames.add(ir.text(identifier));
+    }
+
+    private static void collectReferences(ShaderIR ir, Unit unit, List<Token> tokens) {
+        int stop = ir.stop(unit.node);
+        for (int i = ir.start(unit.node); i <= stop; i++) {
+            Token token = tokens.get(i);
+            if (token.getChannel() == GLSLLexer.DIRECTIVES) {
+                unit.removable = false;
+            } else if (token.getType() == GLSLLexer.IDENTIFIER) {
+                unit.references.add(token.getText());
+            }
+        }
+    }
+
+    /**
+     * Adds every identifier-like word of a directive's text. Also used by {@link ShaderMinifier}, so both passes agree
+     * on the names a directive references.
+     */
+    static void addIdentifiers(String text, Collection<String> names) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (Character.isLetter(c) || c == '_') {
+                int start = i;
+                while (i < length && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) i++;
+                names.add(text.substring(start, i));
+            } else if (Character.isDigit(c)) {
+                while (i < length && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '.')) i++;
+            } else {
+                i++;
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.zomdroid.agent.glsl;
+
+import com.zomdroid.agent.glsl.antlr.GLSLLexer;
+import com.zomdroid.agent.glsl.antlr.GLSLParser;
+
+import java.util.List;
+
+/**
+ * Computes the type of expressions bottom-up: literals, variables, swizzles and struct fields, indexing,
+ * constructors, operators, and calls resolved against the built-in and user defined overloads of the function.
+ * <p>
+ * The type of every expression asked about is stored in the {@link ShaderIR}, as {@link GLSLCoreToESVisitor} asks
+ * about the arguments of nested calls once per enclosing call. Like the summaries of
+ * {@link GLSLBottomUpContextResolver}, types depend on the variables in scope at the time of the first question,
+ * which is fine since expressions can't declare variables.
+ * <p>
+ * Types follow desktop GLSL, where an int operand mixed with a float one is converted to float, since the translator
+ * rewrites int literals in float contexts. Anything the typer can't resolve, e.g. an undeclared built-in variable like
+ * {@code gl_FragColor} or a call no overload matches, has the type {@code null}.
+ */
+public class ExpressionTyper {
+    private final ShaderIR ir;
+    private final GLSLCoreToESVisitor.SymbolTable symbolTable;
+
+    public ExpressionTyper(ShaderIR ir, GLSLCoreToESVisitor.SymbolTable symbolTable) {
+        this.ir = ir;
+        this.symbolTable = symbolTable;
+    }
+
+    /**
+     * @return type of the expression node, or {@code null} if it can't be resolved
+     */
+    public GLSLType typeOf(int expression) {
+        if (expression == -1) return null;
+        if (!ir.isTyped(expression)) ir.setType(expression, computeType(expression));
+        return ir.type(expression);
+    }
+
+    /**
+     * Resolves a call against the user defined and built-in overloads of the function it names.
+     * Nothing is allocated: the name is the text of the callee token, kept by the lexer, and the arguments
+     * are the typed nodes of the call.
+     *
+     * @param callee     postfix_expression naming the function
+     * @param parameters function_call_parameters node with the arguments of the call, {@code -1} if it has none
+     * @return the overload, or {@code null} if the callee isn't a plain name or no overload matches
+     */
+    public GLSLCoreToESVisitor.SymbolTable.FunctionRecord resolveCall(int callee, int parameters) {
+        int primary = ir.childOfRule(callee, GLSLParser.RULE_primary_expression);
+        if (primary == -1) return null;
+        int variable = ir.childOfRule(primary, GLSLParser.RULE_variable_identifier);
+        if (variable == -1) return null;
+        return resolveOverload(symbolTable.getFunctionOverloads(ir.text(ir.firstChild(variable))), parameters);
+    }
+
+    /**
+     * Picks the overload a call resolves to: the first one whose parameters have exactly the types of the arguments,
+     * otherwise the first one the arguments convert to, where int converts to float and an unknown type matches any.
+     *
+     * @param parameters function_call_parameters node with the arguments of the call, {@code -1} if it has none
+     * @return the overload, or {@code null} if none matches
+     */
+    public GLSLCoreToESVisitor.SymbolTable.FunctionRecord resolveOverload(
+            GLSLCoreToESVisitor.SymbolTable.OverloadSet overloads, int parameters) {
+        if (overloads == null) return null;
+
+        int arity = 0;
+        for (int argument = firstArgument(parameters); argument != -1; argument = nextArgument(argument)) arity++;
+
+        GLSLCoreToESVisitor.SymbolTable.FunctionRecord converted = null;
+        List<GLSLCoreToESVisitor.SymbolTable.FunctionRecord> candidates = overloads.withArity(arity);
+        for (int c = 0; c < candidates.size(); c++) {
+            GLSLCoreToESVisitor.SymbolTable.FunctionRecord candidate = candidates.get(c);
+            List<GLSLType> parameterTypes = candidate.parameterTypes();
+            boolean exact = true;
+            boolean compatible = true;
+            int argumentNode = firstArgument(parameters);
+            for (int i = 0; i < parameterTypes.size() && compatible; i++, argumentNode = nextArgument(argumentNode)) {
+                GLSLType argument = typeOf(argumentNode);
+                GLSLType parameter = parameterTypes.get(i);
+                if (argument == parameter) continue;
+                exact = false;
+                compatible = argument == null || (argument == GLSLType.INT && parameter == GLSLType.FLOAT);
+            }
+            if (exact) return candidate;
+            if (compatible && converted == null) converted = candidate;
+        }
+        return converted;
+    }
+
+    private int firstArgument(int parameters) {
+        if (parameters == -1) return -1;
+        int child = ir.firstChild(parameters);
+        return child == -1 || ir.rule(child) == GLSLParser.RULE_assignment_expression ? child : nextArgument(child);
+    }
+
+    private int nextArgument(int argument) {
+        for (int child = ir.nextSibling(argument); child != -1; child = ir.nextSibling(child)) {
+            if (ir.rule(child) == GLSLParser.RULE_assignment_expression) return child;
+        }
+        return -1;
+    }
+
+    private GLSLType computeType(int node) {
+        return switch (ir.rule(node)) {
+            // the value of a comma expression is its last operand
+            case GLSLParser.RULE_expression -> typeOf(ir.childOfRule(node, GLSLParser.RULE_assignment_expression));
+            case GLSLParser.RULE_integer_expression -> typeOf(ir.childOfRule(node, GLSLParser.RULE_expression));
+            case GLSLParser.RULE_assignment_expression -> assignmentType(node);
+            case GLSLParser.RULE_constant_expression -> conditionalType(node);
+            case GLSLParser.RULE_binary_expression -> binaryType(node);
+            case GLSLParser.RULE_unary_expression -> unaryType(node);
+            case GLSLParser.RULE_postfix_expression -> postfixType(node);
+            case GLSLParser.RULE_primary_expression -> primaryType(node);
+            default -> null;
+        };
+    }
+
+    private GLSLType assignmentType(int node) {
+        int constant = ir.childOfRule(node, GLSLParser.RULE_constant_expression);
+        if (constant != -1) return typeOf(constant);
+        return typeOf(ir.childOfRule(node, GLSLParser.RULE_unary_expression));
+    }
+
+    private GLSLType conditionalType(int node) {
+        if (ir.childOfToken(node, GLSLLexer.QUESTION) == -1) {
+            return typeOf(ir.childOfRule(node, GLSLParser.RULE_binary_expression));
+        }
+
+        GLSLType type = typeOf(ir.childOfRule(node, GLSLParser.RULE_expression));
+        return type != null ? type : typeOf(ir.childOfRule(node, GLSLParser.RULE_assignment_expression));
+    }
+
+    private GLSLType binaryType(int node) {
+        int left = ir.firstChild(node);
+        if (ir.rule(left) == GLSLParser.RULE_unary_expression) return typeOf(left);
+
+        int operator = ir.nextSibling(left);
+        switch (ir.tokenType(operator)) {
+            case GLSLLexer.LEFT_ANGLE, GLSLLexer.RIGHT_ANGLE, GLSLLexer.LE_OP, GLSLLexer.GE_OP,
+                 GLSLLexer.EQ_OP, GLSLLexer.NE_OP, GLSLLexer.AND_OP, GLSLLexer.XOR_OP, GLSLLexer.OR_OP:
+                return GLSLType.BOOL;
+            case GLSLLexer.LEFT_OP, GLSLLexer.RIGHT_OP:
+                return typeOf(left);
+            default:
+                return arithmetic(typeOf(left), typeOf(ir.nextSibling(operator)));
+        }
+    }
+
+    /**
+     * Type of {@code + - * / % & ^ |} applied to operands of the given types.
+     */
+    private static GLSLType arithmetic(GLSLType left, GLSLType right) {
+        if (left == null || right == null) return null;
+        if (left == right) return left;
+
+        if (isScalar(left) && isScalar(right)) {
+            return left == GLSLType.FLOAT || right == GLSLType.FLOAT ? GLSLType.FLOAT : null;
+        }
+        // a scalar is applied to every component of a vector or matrix
+        if (isScalar(left)) return right;
+        if (isScalar(right)) return left;
+
+        // matrix times column vector and row vector times matrix
+        if (left instanceof GLSLType.VectorType && columnOf(right) == left) return left;
+        if (right instanceof GLSLType.VectorType && columnOf(left) == right) return right;
+        return null;
+    }
+
+    private static boolean isScalar(GLSLType type) {
+        return type == GLSLType.FLOAT || type == GLSLType.INT || type == GLSLType.BOOL;
+    }
+
+    /**
+     * @return type of a column of a matrix type, {@code null} for any other type
+     */
+    private static GLSLType columnOf(GLSLType type) {
+        if (type == GLSLType.MAT2) return GLSLType.VEC2;
+        if (type == GLSLType.MAT3) return GLSLType.VEC3;
+        if (type == GLSLType.MAT4) return GLSLType.VEC4;
+        return null;
+    }
+
+    private GLSLType unaryType(int node) {
+        int postfix = ir.childOfRule(node, GLSLParser.RULE_postfix_expression);
+        if (postfix != -1) return typeOf(postfix);
+
+        GLSLType operand = typeOf(ir.childOfRule(node, GLSLParser.RULE_unary_expression));
+        int operator = ir.childOfRule(node, GLSLParser.RULE_unary_operator);
+        if (operator != -1 && ir.childOfToken(operator, GLSLLexer.BANG) != -1) return GLSLType.BOOL;
+        return operand;
+    }
+
+    private GLSLType postfixType(int node) {
+        int first = ir.firstChild(node);
+        if (ir.rule(first) == GLSLParser.RULE_primary_expression) return typeOf(first);
+
+        if (ir.rule(first) == GLSLParser.RULE_type_specifier) {
+            // constructor, arrays are not tracked so an array constructor has the type of its elements
+            int nonArray = ir.childOfRule(first, GLSLParser.RULE_type_specifier_nonarray);
+            return nonArray != -1 ? symbolTable.getTypeByName(ir.text(nonArray)) : null;
+        }
+
+        int base = first;
+        int suffix = ir.nextSibling(base);
+        if (suffix == -1) return null;
+        if (ir.tokenType(suffix) == GLSLLexer.LEFT_PAREN) {
+            return call(base, ir.childOfRule(node, GLSLParser.RULE_function_call_parameters));
+        }
+
+        GLSLType baseType = typeOf(base);
+        if (baseType == null) return null;
+
+        if (ir.tokenType(suffix) == GLSLLexer.LEFT_BRACKET) {
+            if (baseType instanceof GLSLType.VectorType) return baseType.getComponentType();
+            GLSLType column = columnOf(baseType);
+            // anything else is an array, which has the type of its elements
+            return column != null ? column : baseType;
+        }
+        if (ir.tokenType(suffix) == GLSLLexer.DOT) {
+            int field = ir.nextSibling(suffix);
+            if (field == -1) return null;
+            if (ir.childOfRule(field, GLSLParser.RULE_function_call) != -1) return GLSLType.INT; // length() of an array
+            if (!(baseType instanceof GLSLType.StructType struct)) return null;
+            try {
+                return struct.getFieldType(ir.text(field));
+            } catch (IllegalArgumentException e) {
+                return null; // invalid swizzle
+            }
+        }
+        return baseType; // ++ and --
+    }
+
+    private GLSLType call(int callee, int parameters) {
+        GLSLCoreToESVisitor.SymbolTable.FunctionRecord overload = resolveCall(callee, parameters);
+        return overload != null ? overload.returnType() : null;
+    }
+
+    private GLSLType primaryType(int node) {
+        int first = ir.firstChild(node);
+        if (ir.rule(first) == GLSLParser.RULE_variable_identifier) return symbolTable.getVarType(ir.text(first));
+
+        int expression = ir.childOfRule(node, GLSLParser.RULE_expression);
+        if (expression != -1) return typeOf(expression);
+        return switch (ir.tokenType(first)) {
+            case GLSLLexer.FLOATCONSTANT -> GLSLType.FLOAT;
+            case GLSLLexer.INTCONSTANT, GLSLLexer.UINTCONSTANT -> GLSLType.INT;
+            case GLSLLexer.TRUE, GLSLLexer.FALSE -> GLSLType.BOOL;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,36 @@
+package com.zomdroid.agent.glsl;
+
+import com.zomdroid.agent.glsl.antlr.GLSLLexer;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.WritableToken;
+
+/**
+ * {@link GLSLLexer} for desktop GLSL sources.
+ * <p>
+ * The grammar follows the Vulkan flavour of GLSL, where {@code texture1D}, {@code texture2D}, {@code texture3D}
+ * and {@code textureCube} are texture type keywords. In desktop GLSL and GLSL ES they are ordinary built-in
+ * function names, so every {@code texture2D(...)} call in a game shader is a syntax error for the parser,
+ * forcing error recovery and the slow full-LL parse path. This lexer emits them as identifiers instead, and calls
+ * to the texture functions resolve against their declarations in {@code GLSL_ES_2_BUILTINS}, so their arguments get
+ * the float context of their parameters like any other call.
+ * <p>
+ * Tokens keep their text, so passes asking for the text of a token, e.g. the name of every called function, get
+ * the same string each time instead of a new copy of the input.
+ */
+public class GLSLCompatLexer extends GLSLLexer {
+    public GLSLCompatLexer(CharStream input) {
+        super(input);
+        setTokenFactory(new CommonTokenFactory(true));
+    }
+
+    @Override
+    public Token nextToken() {
+        Token token = super.nextToken();
+        switch (token.getType()) {
+            case TEXTURE1D, TEXTURE2D, TEXTURE3D, TEXTURECUBE -> ((WritableToken) token).setType(IDENTIFIER);
+        }
+        return token;
+    }
+}
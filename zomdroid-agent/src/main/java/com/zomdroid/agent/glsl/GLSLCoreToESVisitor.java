@@ -2,19 +2,12 @@ package com.zomdroid.agent.glsl;
 
 import com.zomdroid.agent.glsl.antlr.GLSLLexer;
 import com.zomdroid.agent.glsl.antlr.GLSLParser;
-import com.zomdroid.agent.glsl.antlr.GLSLParserBaseVisitor;
-import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.Token;
-import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.ParseTreeProperty;
-import org.antlr.v4.runtime.tree.TerminalNode;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A visitor that analyzes a GLSL shader and collects replacements to adapt it for GLSL ES compatibility.
@@ -24,106 +17,301 @@ import java.util.regex.Pattern;
  *   <li>Detects user-defined functions that override built-in GLSL functions and marks them for removal.</li>
  * </ul>
  * The visitor uses a top-down propagation approach to determine context from parent nodes.
- * It does not modify the source directly; instead, it builds a list of token-level replacements
+ * It walks the {@link ShaderIR} of the shader and keeps the float context of every node in an array indexed by node.
+ * It does not modify the source directly; instead, it collects token-level edits in a {@link TokenRewriter}
  * that can be applied in a separate pass to generate the final modified shader source.
  */
 // TODO handle return statements (visitJump_statement). E.g if we have return 3 * var; and var is a float, 3 -> 3.0
-// TODO constant fold uniform initializers to allow processing in gl4es. E.g. uniform int uni = 1 + 2; -> uniform int uni = 3;
-// TODO handle struct declaration
-public class GLSLCoreToESVisitor extends GLSLParserBaseVisitor<Void> {
-    private final SymbolTable symbols = new SymbolTable();
-    ParseTreeProperty<Boolean> floatContext = new ParseTreeProperty<>();
+public class GLSLCoreToESVisitor {
+    // float context of a node, unset for nodes that neither have one nor pass one down to their children
+    private static final byte UNSET = 0;
+    private static final byte NOT_FLOAT = 1;
+    private static final byte FLOAT = 2;
 
-    // map tokenIndex -> replacement text
-    public final Map<Integer, String> replacements = new HashMap<>();
+    private final ShaderIR ir;
+    private final SymbolTable symbols;
+    private final byte[] floatContext;
+    private final GLSLBottomUpContextResolver.Summary[] summaries;
 
-    // map depth -> function param float context stack
-    private final Map<Integer, LinkedList<Boolean>> depthToFuncParamFloatContextStack = new HashMap<>();
+    public final TokenRewriter rewriter = new TokenRewriter();
 
     private int depth = 0;
 
     private final GLSLBottomUpContextResolver bottomUpContextResolver;
+    private final ExpressionTyper typer;
+
+    public GLSLCoreToESVisitor(ShaderIR ir) {
+        this(ir, new SymbolTable(), new byte[ir.size()], new GLSLBottomUpContextResolver.Summary[ir.size()]);
+    }
+
+    private GLSLCoreToESVisitor(ShaderIR ir, SymbolTable symbols, byte[] floatContext,
+                                GLSLBottomUpContextResolver.Summary[] summaries) {
+        this.ir = ir;
+        this.symbols = symbols;
+        this.floatContext = floatContext;
+        this.summaries = summaries;
+        this.bottomUpContextResolver = new GLSLBottomUpContextResolver(ir, symbols, summaries);
+        this.typer = new ExpressionTyper(ir, symbols);
+    }
+
+    /**
+     * Analyzes the whole translation unit.
+     */
+    public void visit() {
+        visit(0);
+    }
+
+    /**
+     * Analyzes a translation unit in two phases, visiting function definitions in parallel.
+     * <p>
+     * The first phase visits global declarations in order and declares the function of each definition, giving every
+     * function a table layered over the symbol table as it stands at its definition, so nothing is copied per function.
+     * In the second phase, the functions are visited on {@code pool}, each by its own visitor with its own edits,
+     * which are then merged in source order.
+     * The visitors share the annotations of the IR, as they annotate disjoint subtrees.
+     * The result is the same as visiting the tree with a single visitor.
+     * <p>
+     * Decisions of the second phase are not traced, since the trace is per thread.
+     */
+    public static GLSLCoreToESVisitor visitInParallel(ShaderIR ir, ForkJoinPool pool) {
+        GLSLCoreToESVisitor visitor = new GLSLCoreToESVisitor(ir);
+
+        List<FunctionTask> tasks = new ArrayList<>();
+        for (int declaration = ir.firstChild(0); declaration != -1; declaration = ir.nextSibling(declaration)) {
+            if (ir.rule(declaration) != GLSLParser.RULE_external_declaration) continue; // EOF
+
+            int definition = ir.childOfRule(declaration, GLSLParser.RULE_function_definition);
+            if (definition == -1) {
+                visitor.visit(declaration);
+                continue;
+            }
+            int prototype = ir.childOfRule(definition, GLSLParser.RULE_function_prototype);
+            if (visitor.isBuiltinOverride(prototype)) {
+                visitor.rewriter.delete(ir.start(definition), ir.stop(definition));
+            } else {
+                SymbolTable.FunctionRecord function = visitor.declareFunction(prototype);
+                GLSLCoreToESVisitor functionVisitor = new GLSLCoreToESVisitor(ir, new SymbolTable(visitor.symbols),
+                        visitor.floatContext, visitor.summaries);
+                tasks.add(new FunctionTask(functionVisitor, definition, function, visitor.rewriter.size()));
+            }
+        }
 
-    public GLSLCoreToESVisitor() {
-        this.bottomUpContextResolver = new GLSLBottomUpContextResolver(symbols);
-    }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
 
-    private void debugLog(String message) {
-        String indent = "\t".repeat(depth);
-        //System.out.println(indent + message);
+        int[] positions = new int[tasks.size()];
+        List<TokenRewriter> parts = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            positions[i] = tasks.get(i).precedingEdits;
+            parts.add(tasks.get(i).visitor.rewriter);
+        }
+        visitor.rewriter.insertAll(positions, parts);
+        return visitor;
     }
 
-    @Override
-    public Void visitTerminal(TerminalNode node) {
-        Token tok = node.getSymbol();
-        debugLog("visitTerminal " + tok.getText());
+    /**
+     * Visit of a function definition in the second phase of {@link #visitInParallel}.
+     */
+    private static final class FunctionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
 
-        Boolean isInFloatContext = floatContext.get(node.getParent());
-        if (tok.getType() == GLSLLexer.INTCONSTANT && isInFloatContext) {
+        private final GLSLCoreToESVisitor visitor;
+        private final int definition;
+        private final SymbolTable.FunctionRecord function;
+        // number of edits of the first phase preceding the function
+        private final int precedingEdits;
 
-            replacements.put(tok.getTokenIndex(), tok.getText() + ".0");
+        FunctionTask(GLSLCoreToESVisitor visitor, int definition, SymbolTable.FunctionRecord function, int precedingEdits) {
+            this.visitor = visitor;
+            this.definition = definition;
+            this.function = function;
+            this.precedingEdits = precedingEdits;
+        }
 
-            int line = tok.getLine();
-            int col = tok.getCharPositionInLine();
-            debugLog(String.format("Replaced int constant at line %d, column %d: '%s' -> '%s.0'%n",
-                    line, col, tok.getText(), tok.getText()));
+        @Override
+        protected void compute() {
+            visitor.visitFunctionBody(definition, function);
         }
-        return super.visitTerminal(node);
     }
 
-    @Override
-    public Void visitSingle_declaration(GLSLParser.Single_declarationContext ctx) {
-        debugLog("visitSingle_declaration " + ctx.getText());
+    /**
+     * @return whether a node is in a float context, for passes that run after this visitor
+     */
+    public boolean isFloatContext(int node) {
+        return floatContext[node] == FLOAT;
+    }
+
+    private static byte floatContextOf(boolean isFloat) {
+        return isFloat ? FLOAT : NOT_FLOAT;
+    }
 
-        GLSLType varType = null;
-        GLSLParser.Fully_specified_typeContext fullySpecTypeCtx = ctx.fully_specified_type();
-        if (fullySpecTypeCtx != null) {
-            GLSLParser.Type_specifierContext typeCtx = fullySpecTypeCtx.type_specifier();
-            if (typeCtx != null) {
-                String varTypeName = typeCtx.getText();
-                varType = symbols.getTypeByName(varTypeName);
+    /**
+     * Records a visit of {@code node} in the {@link TranslationTrace}, along with the float context of its parent.
+     */
+    private void traceVisit(int node) {
+        if (TranslationTrace.LEVEL >= TranslationTrace.VISITS) {
+            String label;
+            if (ir.isToken(node)) {
+                label = "visitTerminal";
+            } else {
+                String rule = GLSLParser.ruleNames[ir.rule(node)];
+                label = "visit" + Character.toUpperCase(rule.charAt(0)) + rule.substring(1);
             }
+            byte parentContext = ir.parent(node) != -1 ? floatContext[ir.parent(node)] : UNSET;
+            String parentFloatContext = parentContext == UNSET ? "null" : String.valueOf(parentContext == FLOAT);
+            TranslationTrace.record(depth, label, ir.tree(node), "parentFloatContext=" + parentFloatContext);
         }
+    }
 
-        String varName = null;
-        GLSLParser.Typeless_declarationContext typelessDeclCtx = ctx.typeless_declaration();
-        if (typelessDeclCtx != null) {
-            TerminalNode identifier = typelessDeclCtx.IDENTIFIER();
-            if (identifier != null) {
-                varName = identifier.getText();
+    private void traceDecision(String message) {
+        TranslationTrace.record(depth, message, null, null);
+    }
+
+    private void visit(int node) {
+        if (ir.isToken(node)) {
+            visitTerminal(node);
+            return;
+        }
+
+        switch (ir.rule(node)) {
+            case GLSLParser.RULE_translation_unit -> visitChildren(node);
+            case GLSLParser.RULE_function_definition -> visitFunction_definition(node);
+            case GLSLParser.RULE_declaration -> visitDeclaration(node);
+            case GLSLParser.RULE_single_declaration -> visitSingle_declaration(node);
+            case GLSLParser.RULE_assignment_expression -> visitAssignment_expression(node, false, false);
+            case GLSLParser.RULE_postfix_expression -> visitPostfix_expression(node);
+            case GLSLParser.RULE_struct_specifier -> visitStruct_specifier(node);
+            case GLSLParser.RULE_binary_expression -> visitBinary_expression(node);
+            case GLSLParser.RULE_compound_statement -> {
+                traceVisit(node);
+                symbols.enterNewVarScope();
+                visitChildrenNested(node);
+                symbols.exitVarScope();
+            }
+            // expressions and declarators inherit the context of their parent
+            case GLSLParser.RULE_primary_expression, GLSLParser.RULE_field_selection, GLSLParser.RULE_unary_expression,
+                 GLSLParser.RULE_expression, GLSLParser.RULE_constant_expression,
+                 GLSLParser.RULE_typeless_declaration, GLSLParser.RULE_initializer -> {
+                traceVisit(node);
+                floatContext[node] = floatContextOf(isParentInFloatContext(node));
+                visitChildrenNested(node);
+            }
+            default -> {
+                traceVisit(node);
+                visitChildrenNested(node);
             }
         }
+    }
 
-        if (varType != null && varName != null) {
-            symbols.declareVar(varName, varType);
-            debugLog("Declared var with name=" + varName + " and type=" + varType.getName());
-            floatContext.put(ctx, varType.getName().equals("float"));
+    private void visitChildren(int node) {
+        for (int child = ir.firstChild(node); child != -1; child = ir.nextSibling(child)) {
+            visit(child);
         }
+    }
 
+    private void visitChildrenNested(int node) {
         depth++;
-        super.visitSingle_declaration(ctx);
+        visitChildren(node);
         depth--;
+    }
+
+    private void visitTerminal(int node) {
+        traceVisit(node);
 
-        return null;
+        if (ir.tokenType(node) == GLSLLexer.INTCONSTANT && isParentInFloatContext(node)) {
+            String text = ir.text(node);
+            rewriter.replace(ir.start(node), text + ".0");
+
+            if (TranslationTrace.LEVEL >= TranslationTrace.DECISIONS) {
+                Token tok = ir.token(node);
+                traceDecision("Replaced int constant at line " + tok.getLine() + ", column " + tok.getCharPositionInLine()
+                        + ": '" + text + "' -> '" + text + ".0'");
+            }
+        }
     }
 
-    @Override
-    public Void visitAssignment_expression(GLSLParser.Assignment_expressionContext ctx) {
-        debugLog("visitAssignment_expression " + ctx.getText());
+    private void visitSingle_declaration(int node) {
+        traceVisit(node);
 
-        boolean isFloatContext = false;
-        boolean isFunctionParam = false;
+        GLSLType varType = null;
+        int fullySpecType = ir.childOfRule(node, GLSLParser.RULE_fully_specified_type);
+        if (fullySpecType != -1) {
+            int typeSpec = ir.childOfRule(fullySpecType, GLSLParser.RULE_type_specifier);
+            if (typeSpec != -1) {
+                varType = symbols.getTypeByName(ir.text(typeSpec));
+            }
+        }
+
+        String varName = null;
+        int typelessDecl = ir.childOfRule(node, GLSLParser.RULE_typeless_declaration);
+        if (typelessDecl != -1) {
+            int identifier = ir.childOfToken(typelessDecl, GLSLLexer.IDENTIFIER);
+            if (identifier != -1) {
+                varName = ir.text(identifier);
+            }
+        }
 
-        LinkedList<Boolean> funcParamFloatContextStack = depthToFuncParamFloatContextStack.get(depth);
-        if (funcParamFloatContextStack != null) {
-            isFunctionParam = true;
-            if (!funcParamFloatContextStack.isEmpty()) {
-                isFloatContext = funcParamFloatContextStack.pollFirst();
+        if (varType != null && varName != null) {
+            symbols.declareVar(varName, varType);
+            if (TranslationTrace.LEVEL >= TranslationTrace.DECISIONS) {
+                traceDecision("Declared var with name=" + varName + " and type=" + varType.getName());
+            }
+            floatContext[node] = floatContextOf(varType == GLSLType.FLOAT);
+        }
+
+        visitChildrenNested(node);
+    }
+
+    /**
+     * Operands of arithmetic and comparison operators are in a float context if either of them is float, e.g.
+     * {@code 4} in {@code tc * 4} for a {@code vec2 tc}. Comparisons of operands known not to be float aren't,
+     * whatever the context of the comparison, and anything else inherits the context of its parent.
+     */
+    private void visitBinary_expression(int node) {
+        traceVisit(node);
+
+        byte context = floatContextOf(isParentInFloatContext(node));
+        int left = ir.firstChild(node);
+        if (ir.rule(left) == GLSLParser.RULE_binary_expression) {
+            int operator = ir.nextSibling(left);
+            GLSLType leftType = typer.typeOf(left);
+            GLSLType rightType = typer.typeOf(ir.nextSibling(operator));
+            boolean isFloatOperand = isFloat(leftType) || isFloat(rightType);
+            switch (ir.tokenType(operator)) {
+                case GLSLLexer.PLUS, GLSLLexer.DASH, GLSLLexer.STAR, GLSLLexer.SLASH -> {
+                    if (isFloatOperand) context = FLOAT;
+                }
+                case GLSLLexer.LEFT_ANGLE, GLSLLexer.RIGHT_ANGLE, GLSLLexer.LE_OP, GLSLLexer.GE_OP,
+                     GLSLLexer.EQ_OP, GLSLLexer.NE_OP -> {
+                    if (isFloatOperand) context = FLOAT;
+                    else if (leftType != null && rightType != null) context = NOT_FLOAT;
+                }
+                default -> {
+                }
+            }
+            if (TranslationTrace.LEVEL >= TranslationTrace.DECISIONS && context == FLOAT && !isParentInFloatContext(node)) {
+                traceDecision("Float operand of " + ir.text(operator) + " at line "
+                        + ir.token(operator).getLine());
             }
         }
+        floatContext[node] = context;
+        visitChildrenNested(node);
+    }
+
+    private static boolean isFloat(GLSLType type) {
+        return type != null && (type.getComponentType() == GLSLType.FLOAT
+                || type == GLSLType.MAT2 || type == GLSLType.MAT3 || type == GLSLType.MAT4);
+    }
 
+    /**
+     * @param isFunctionParam   whether the expression is an argument of a function call
+     * @param paramFloatContext whether the parameter the argument is passed to is float
+     */
+    private void visitAssignment_expression(int node, boolean isFunctionParam, boolean paramFloatContext) {
+        traceVisit(node);
 
-        GLSLType varType = getVarTypeFromAssignment(ctx);
+        boolean isFloatContext = paramFloatContext;
+
+        GLSLType varType = getVarTypeFromAssignment(node);
         if (varType != null) {
             /* Resolving float context based on vector type is not exactly necessary, since vectors allow int ops to some extent,
              * but this helps in situations like
@@ -131,225 +319,200 @@ public class GLSLCoreToESVisitor extends GLSLParserBaseVisitor<Void> {
              * a *= some_expr + 1;
              * Where without such resolution, we would need to visit entire some_expr tree to figure out the context
              * */
-            isFloatContext = varType.getName().equals("float")
-                    || varType.getName().equals("vec2") || varType.getName().equals("vec3") || varType.getName().equals("vec4");
+            isFloatContext = varType.getComponentType() == GLSLType.FLOAT;
         }
 
         if (!isFloatContext) {
-            isFloatContext = bottomUpContextResolver.visit(ctx);
+            isFloatContext = bottomUpContextResolver.isFloatContext(node);
         }
 
-        boolean wasFloatContext = isParentInFloatContext(ctx);
+        boolean wasFloatContext = isParentInFloatContext(node);
 
         // we are not interested in previous context if this is func param assignment
-        floatContext.put(ctx, (wasFloatContext && !isFunctionParam) || isFloatContext);
-        depth++;
-        super.visitAssignment_expression(ctx);
-        depth--;
-
-        return null;
+        floatContext[node] = floatContextOf((wasFloatContext && !isFunctionParam) || isFloatContext);
+        visitChildrenNested(node);
     }
 
     // some global vars are not defined explicitly (e.g. gl_FragColor) so they are not in symbols table TODO add predefined global vars to symbols table
-    private GLSLType getVarTypeFromAssignment(GLSLParser.Assignment_expressionContext ctx) {
-        GLSLParser.Unary_expressionContext unaryExpr = ctx.unary_expression();
-        if (unaryExpr == null) return null;
-
-        GLSLParser.Postfix_expressionContext postfixExpr = unaryExpr.postfix_expression();
-        if (postfixExpr == null) return null;
-
-        if (postfixExpr.field_selection() == null) return symbols.getVarType(postfixExpr.getText());
-
-
-        ArrayList<String> fields = new ArrayList<>();
-        while (postfixExpr.field_selection() != null) {
-            fields.add(0, postfixExpr.field_selection().getText());
-            postfixExpr = postfixExpr.postfix_expression();
-            if (postfixExpr == null) return null;
-        }
-
-        GLSLType type = symbols.getVarType(postfixExpr.getText());
-
-        for (String field : fields) {
-            if (type instanceof GLSLType.StructType) {
-                type = ((GLSLType.StructType) type).getFieldType(field);
-            }
-        }
-        return type;
+    private GLSLType getVarTypeFromAssignment(int node) {
+        int unaryExpr = ir.childOfRule(node, GLSLParser.RULE_unary_expression);
+        if (unaryExpr == -1) return null;
+        return typer.typeOf(unaryExpr);
     }
 
-    @Override
-    public Void visitPostfix_expression(GLSLParser.Postfix_expressionContext ctx) {
-        debugLog("visitPostfix_expression " + ctx.getText());
+    private void visitPostfix_expression(int node) {
+        traceVisit(node);
 
-        List<ParseTree> children = new ArrayList<>();
-        for (int i = 0; i < ctx.getChildCount(); i++) {
-            children.add(ctx.getChild(i));
+        int first = ir.firstChild(node);
+        int second = ir.nextSibling(first);
+        int last = first;
+        int numChildren = 1;
+        for (int child = second; child != -1; child = ir.nextSibling(child)) {
+            last = child;
+            numChildren++;
         }
-        int numChildren = children.size();
 
         boolean isFunctionCall = numChildren >= 3
-                && !(children.get(0) instanceof GLSLParser.Type_specifierContext)
-                && "(".equals(children.get(1).getText())
-                && ")".equals(children.get(numChildren - 1).getText());
+                && ir.rule(first) != GLSLParser.RULE_type_specifier
+                && ir.tokenType(second) == GLSLLexer.LEFT_PAREN
+                && ir.tokenType(last) == GLSLLexer.RIGHT_PAREN;
 
-        LinkedList<Boolean> functionParamsFloatContextStack = new LinkedList<>();
+        depth++;
+        floatContext[node] = floatContextOf(isParentInFloatContext(node));
 
         if (isFunctionCall) {
-            String funcName = children.get(0).getText();
-
-            GLSLParser.Function_call_parametersContext paramsCtx = null;
-            for (ParseTree child : children) {
-                if (child instanceof GLSLParser.Function_call_parametersContext) {
-                    paramsCtx = (GLSLParser.Function_call_parametersContext) child;
-                    break;
+            int paramsNode = ir.childOfRule(node, GLSLParser.RULE_function_call_parameters);
+            SymbolTable.FunctionRecord overload = typer.resolveCall(first, paramsNode);
+            for (int child = first; child != -1; child = ir.nextSibling(child)) {
+                if (child == paramsNode) {
+                    visitFunction_call_parameters(child, overload);
+                } else {
+                    visit(child);
                 }
             }
-
-            List<String> actualParamTypeNames = new ArrayList<>();
-            if (paramsCtx != null) {
-                List<GLSLParser.Assignment_expressionContext> paramExprs = paramsCtx.assignment_expression();
-                for (GLSLParser.Assignment_expressionContext expr : paramExprs) {
-                    actualParamTypeNames.add(inferTypeName(expr));
-                }
-            }
-
-            functionParamsFloatContextStack = resolveFunctionParamsContext(funcName, actualParamTypeNames);
-        }
-
-        depth++;
-
-        if (isFunctionCall) {
-            depthToFuncParamFloatContextStack.put(depth + 1, functionParamsFloatContextStack);
-        }
-
-        floatContext.put(ctx, isParentInFloatContext(ctx));
-
-        super.visitPostfix_expression(ctx);
-
-        if (isFunctionCall) {
-            depthToFuncParamFloatContextStack.remove(depth + 1);
+        } else {
+            visitChildren(node);
         }
 
         depth--;
-
-        return null;
-    }
-
-    @Override
-    public Void visitInteger_expression(GLSLParser.Integer_expressionContext ctx) {
-        debugLog("visitInteger_expression " + ctx.getText());
-        depth++;
-        super.visitInteger_expression(ctx);
-        depth--;
-        return null;
     }
 
-    @Override
-    public Void visitFunction_prototype(GLSLParser.Function_prototypeContext ctx) {
-        debugLog("visitFunction_prototype " + ctx.getText());
+    /**
+     * Visits the arguments of a function call, each in the float context of its parameter in {@code overload},
+     * or in none if the call doesn't resolve.
+     */
+    private void visitFunction_call_parameters(int node, SymbolTable.FunctionRecord overload) {
+        traceVisit(node);
         depth++;
-        super.visitFunction_prototype(ctx);
+        List<GLSLType> parameterTypes = overload != null ? overload.parameterTypes() : List.of();
+        int i = 0;
+        for (int child = ir.firstChild(node); child != -1; child = ir.nextSibling(child)) {
+            if (ir.rule(child) == GLSLParser.RULE_assignment_expression) {
+                GLSLType expected = i < parameterTypes.size() ? parameterTypes.get(i) : null;
+                // int literals are rewritten in float vector arguments as well, e.g. abs(v * 2) for a vec3 v
+                visitAssignment_expression(child, true, expected != null && expected.getComponentType() == GLSLType.FLOAT);
+                i++;
+            } else {
+                visit(child);
+            }
+        }
         depth--;
-        return null;
     }
 
-    @Override
-    public Void visitFunction_definition(GLSLParser.Function_definitionContext ctx) {
-        debugLog("visitFunction_definition " + ctx.getText());
-        if (isBuiltinOverride(ctx.function_prototype())) {
+    private void visitFunction_definition(int node) {
+        traceVisit(node);
+        int prototype = ir.childOfRule(node, GLSLParser.RULE_function_prototype);
+        if (isBuiltinOverride(prototype)) {
             // remove function definition
-            Token startToken = ctx.getStart();
-            Token stopToken = ctx.getStop();
-            for (int i = startToken.getTokenIndex(); i <= stopToken.getTokenIndex(); i++) {
-                replacements.put(i, "");
-            }
-            return null;
+            rewriter.delete(ir.start(node), ir.stop(node));
+            return;
         }
 
-        symbols.enterNewVarScope();
-
-        GLSLParser.Function_prototypeContext prototypeCtx = ctx.function_prototype();
+        SymbolTable.FunctionRecord function = declareFunction(prototype);
+        visitFunctionBody(node, function);
+    }
 
-        GLSLParser.Fully_specified_typeContext fullSpecTypeCtx = prototypeCtx.fully_specified_type();
-        GLSLParser.Type_specifierContext typeSpecCtx = fullSpecTypeCtx.type_specifier();
-        String typeName = typeSpecCtx.getText();
+    /**
+     * Declares the function of a definition, unknown parameter types are taken to be float.
+     */
+    private SymbolTable.FunctionRecord declareFunction(int prototype) {
+        int fullSpecType = ir.childOfRule(prototype, GLSLParser.RULE_fully_specified_type);
+        String typeName = ir.text(ir.childOfRule(fullSpecType, GLSLParser.RULE_type_specifier));
         GLSLType type = symbols.getTypeByName(typeName);
 
-        String name = prototypeCtx.IDENTIFIER().getText();
+        String name = ir.text(ir.childOfToken(prototype, GLSLLexer.IDENTIFIER));
 
         ArrayList<GLSLType> paramTypes = new ArrayList<>();
 
-        GLSLParser.Function_parametersContext parametersCtx = prototypeCtx.function_parameters();
-        if (parametersCtx != null) {
-            List<GLSLParser.Parameter_declarationContext> parameterDeclarationCtxList = parametersCtx.parameter_declaration();
-            for (GLSLParser.Parameter_declarationContext paramDeclarationCtx : parameterDeclarationCtxList) {
-                GLSLParser.Parameter_declaratorContext paramDeclaratorCtx = paramDeclarationCtx.parameter_declarator();
+        int parameters = ir.childOfRule(prototype, GLSLParser.RULE_function_parameters);
+        if (parameters != -1) {
+            for (int paramDeclaration = ir.firstChild(parameters); paramDeclaration != -1; paramDeclaration = ir.nextSibling(paramDeclaration)) {
+                if (ir.rule(paramDeclaration) != GLSLParser.RULE_parameter_declaration) continue;
+                int paramDeclarator = ir.childOfRule(paramDeclaration, GLSLParser.RULE_parameter_declarator);
 
-                if (paramDeclaratorCtx == null) continue; // e.g. main(void)
+                if (paramDeclarator == -1) continue; // e.g. main(void)
 
-                GLSLParser.Type_specifierContext paramTypeSpecCtx = paramDeclaratorCtx.type_specifier();
-                String paramTypeName = paramTypeSpecCtx.getText();
+                String paramTypeName = ir.text(ir.childOfRule(paramDeclarator, GLSLParser.RULE_type_specifier));
                 GLSLType paramType = symbols.getTypeByName(paramTypeName);
 
                 if (paramType == null) {
-                    debugLog("Failed to find type with name " + paramTypeName + ", using float instead");
-                    paramType = symbols.getTypeByName("float");
+                    if (TranslationTrace.LEVEL >= TranslationTrace.DECISIONS) {
+                        traceDecision("Failed to find type with name " + paramTypeName + ", using float instead");
+                    }
+                    paramType = GLSLType.FLOAT;
                 }
 
-                String paramName = paramDeclaratorCtx.IDENTIFIER().getText();
-
-                symbols.declareVar(paramName, paramType);
-
                 paramTypes.add(paramType);
             }
         }
 
-        symbols.declareFunction(name, type, paramTypes);
+        return symbols.declareFunction(name, type, paramTypes);
+    }
 
-        depth++;
-        super.visitFunction_definition(ctx);
-        depth--;
+    /**
+     * Visits a function definition with its parameters declared in a new scope.
+     */
+    private void visitFunctionBody(int node, SymbolTable.FunctionRecord function) {
+        symbols.enterNewVarScope();
+
+        int prototype = ir.childOfRule(node, GLSLParser.RULE_function_prototype);
+        int parameters = ir.childOfRule(prototype, GLSLParser.RULE_function_parameters);
+        if (parameters != -1) {
+            int i = 0;
+            for (int paramDeclaration = ir.firstChild(parameters); paramDeclaration != -1; paramDeclaration = ir.nextSibling(paramDeclaration)) {
+                if (ir.rule(paramDeclaration) != GLSLParser.RULE_parameter_declaration) continue;
+                int paramDeclarator = ir.childOfRule(paramDeclaration, GLSLParser.RULE_parameter_declarator);
+                if (paramDeclarator == -1) continue;
+
+                int identifier = ir.childOfToken(paramDeclarator, GLSLLexer.IDENTIFIER);
+                symbols.declareVar(ir.text(identifier), function.parameterTypes().get(i++));
+            }
+        }
+
+        visitChildrenNested(node);
         symbols.exitVarScope();
-        return null;
     }
 
-    private boolean isBuiltinOverride(GLSLParser.Function_prototypeContext ctx) {
-        TerminalNode nameNode = ctx.IDENTIFIER();
-        if (nameNode == null) return false;
+    private boolean isBuiltinOverride(int prototype) {
+        int nameNode = ir.childOfToken(prototype, GLSLLexer.IDENTIFIER);
+        if (nameNode == -1) return false;
 
-        String name = ctx.IDENTIFIER().getText();
-        if (name == null) return false;
+        String name = ir.text(nameNode);
 
-        ArrayList<SymbolTable.FunctionRecord> builtinOverloads = SymbolTable.BUILTIN_FUNCTIONS.get(name);
+        SymbolTable.OverloadSet builtinOverloads = SymbolTable.getBuiltinOverloads(name);
         if (builtinOverloads == null) return false;
 
-        for (SymbolTable.FunctionRecord overload : builtinOverloads) {
-            String returnTypeName = getReturnType(ctx);
-            if (returnTypeName == null || !matchesReturnType(returnTypeName, overload.returnType)) continue;
+        String returnTypeName = getReturnType(prototype);
+        if (returnTypeName == null) return false;
 
-            List<String> params = extractParameterTypes(ctx);
-            if (params == null || !matchesParameters(params, overload.parameterTypes)) continue;
+        List<String> params = extractParameterTypes(prototype);
+        if (params == null) return false;
 
-            return true;
+        List<SymbolTable.FunctionRecord> candidates = builtinOverloads.withArity(params.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            SymbolTable.FunctionRecord overload = candidates.get(i);
+            if (matchesReturnType(returnTypeName, overload.returnType()) && matchesParameters(params, overload.parameterTypes()))
+                return true;
         }
         return false;
     }
 
-    private String getReturnType(GLSLParser.Function_prototypeContext ctx) {
-        var typeCtx = ctx.fully_specified_type();
-        return (typeCtx != null) ? typeCtx.getText() : null;
+    private String getReturnType(int prototype) {
+        int type = ir.childOfRule(prototype, GLSLParser.RULE_fully_specified_type);
+        return (type != -1) ? ir.text(type) : null;
     }
 
-    private List<String> extractParameterTypes(GLSLParser.Function_prototypeContext ctx) {
+    private List<String> extractParameterTypes(int prototype) {
         List<String> params = new ArrayList<>();
-        if (ctx.function_parameters() != null) {
-            for (GLSLParser.Parameter_declarationContext paramDeclarationCtx : ctx.function_parameters().parameter_declaration()) {
-                GLSLParser.Parameter_declaratorContext paramDeclaratorCtx = paramDeclarationCtx.parameter_declarator();
-                if (paramDeclaratorCtx == null) return null;
-                GLSLParser.Type_specifierContext paramTypeSpecCtx = paramDeclaratorCtx.type_specifier();
-                if (paramTypeSpecCtx == null) return null;
-                params.add(paramTypeSpecCtx.getText());
+        int parameters = ir.childOfRule(prototype, GLSLParser.RULE_function_parameters);
+        if (parameters != -1) {
+            for (int paramDeclaration = ir.firstChild(parameters); paramDeclaration != -1; paramDeclaration = ir.nextSibling(paramDeclaration)) {
+                if (ir.rule(paramDeclaration) != GLSLParser.RULE_parameter_declaration) continue;
+                int paramDeclarator = ir.childOfRule(paramDeclaration, GLSLParser.RULE_parameter_declarator);
+                if (paramDeclarator == -1) return null;
+                int paramTypeSpec = ir.childOfRule(paramDeclarator, GLSLParser.RULE_type_specifier);
+                if (paramTypeSpec == -1) return null;
+                params.add(ir.text(paramTypeSpec));
             }
         }
         return params;
@@ -375,846 +538,270 @@ public class GLSLCoreToESVisitor extends GLSLParserBaseVisitor<Void> {
         return true;
     }
 
-    public Void visitFunction_call_parameters(GLSLParser.Function_call_parametersContext ctx) {
-        debugLog("visitFunction_call_parameters " + ctx.getText());
-        depth++;
-        super.visitFunction_call_parameters(ctx);
-        depth--;
-        return null;
-    }
-
-    private String inferTypeName(ParserRuleContext exprCtx) {
-        String text = exprCtx.getText();
-
-        if (symbols.getVarType(text) != null) {
-            return symbols.getVarType(text).getName();
-        }
-        if (text.matches("\\d+")) {
-            return "int";
-        }
-        if (text.matches("\\d+\\.\\d*")) {
-            return "float";
-        }
-        return "unknown";
-    }
-
-    // very rough and mostly incorrect estimate, but hopefully good enough
-    private LinkedList<Boolean> resolveFunctionParamsContext(String funcName, List<String> actualParamTypeNames) {
-        ArrayList<SymbolTable.FunctionRecord> overloads = symbols.getFunctionOverloads(funcName);
-
-        LinkedList<Boolean> floatContextStack = new LinkedList<>();
-
-        for (SymbolTable.FunctionRecord function : overloads) {
-            ArrayList<GLSLType> expectedParameterTypes = function.parameterTypes;
-            if (expectedParameterTypes.size() != actualParamTypeNames.size()) continue;
-
-            boolean match = true;
-            for (int i = 0; i < expectedParameterTypes.size(); i++) {
-                if (!typesCompatible(actualParamTypeNames.get(i), expectedParameterTypes.get(i))) {
-                    match = false;
-                    break;
-                }
-            }
-
-            if (match) {
-                for (GLSLType expected : expectedParameterTypes) {
-                    floatContextStack.add(expected.getName().equals("float"));
-                }
-            }
-        }
-        return floatContextStack;
-    }
-
-    private boolean typesCompatible(String actual, GLSLType expected) {
-        return actual.equals(expected.getName())
-                /*|| (expected.equals("genType") && GEN_TYPES.contains(actual))*/
-                || (actual.equals("int") && expected.getName().equals("float")) // this will be handled by our context aware terminal visitor
-                || actual.equals("unknown");
-    }
-
-
-    @Override
-    public Void visitVariable_identifier(GLSLParser.Variable_identifierContext ctx) {
-        debugLog("visitVariable_identifier " + ctx.getText());
-        depth++;
-        super.visitVariable_identifier(ctx);
-        depth--;
-        return null;
-
-    }
-
-    @Override
-    public Void visitPrimary_expression(GLSLParser.Primary_expressionContext ctx) {
-        debugLog("visitPrimary_expression " + ctx.getText() + " " + isParentInFloatContext(ctx));
-        floatContext.put(ctx, isParentInFloatContext(ctx));
-        depth++;
-        super.visitPrimary_expression(ctx);
-        depth--;
-        return null;
-
-    }
-
-    public boolean isParentInFloatContext(ParseTree ctx) {
-        ParseTree parent = ctx.getParent();
-        if (parent == null) {
-            debugLog("parent is null");
-            return false;
-        }
-
-        Boolean isParentFloatContext = floatContext.get(ctx.getParent());
-        if (isParentFloatContext == null) {
-            debugLog("float context stack doesn't contain parent");
+    public boolean isParentInFloatContext(int node) {
+        int parent = ir.parent(node);
+        if (parent == -1) {
             return false;
         }
-        return isParentFloatContext;
-    }
-
-    @Override
-    public Void visitField_selection(GLSLParser.Field_selectionContext ctx) {
-        debugLog("visitField_selection " + ctx.getText() + " " + isParentInFloatContext(ctx));
-        floatContext.put(ctx, isParentInFloatContext(ctx));
-        depth++;
-        super.visitField_selection(ctx);
-        depth--;
-        return null;
-
-    }
-
-    @Override
-    public Void visitFunction_call(GLSLParser.Function_callContext ctx) {
-        debugLog("visitFunction_call " + ctx.getText());
-        depth++;
-        super.visitFunction_call(ctx);
-        depth--;
-        return null;
-
-    }
-
-    @Override
-    public Void visitFunction_identifier(GLSLParser.Function_identifierContext ctx) {
-        debugLog("visitFunction_identifier " + ctx.getText());
-        depth++;
-        super.visitFunction_identifier(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitUnary_expression(GLSLParser.Unary_expressionContext ctx) {
-        debugLog("visitUnary_expression " + ctx.getText() + " " + isParentInFloatContext(ctx));
-        floatContext.put(ctx, isParentInFloatContext(ctx));
-        depth++;
-        super.visitUnary_expression(ctx);
-        depth--;
-        return null;
-
-    }
-
-    @Override
-    public Void visitUnary_operator(GLSLParser.Unary_operatorContext ctx) {
-        debugLog("visitUnary_operator " + ctx.getText());
-        depth++;
-        super.visitUnary_operator(ctx);
-        depth--;
-        return null;
-
-    }
-
-    @Override
-    public Void visitAssignment_operator(GLSLParser.Assignment_operatorContext ctx) {
-        debugLog("visitAssignment_operator " + ctx.getText());
-        depth++;
-        super.visitAssignment_operator(ctx);
-        depth--;
-        return null;
-
-    }
-
-    @Override
-    public Void visitBinary_expression(GLSLParser.Binary_expressionContext ctx) {
-        debugLog("visitBinary_expression " + ctx.getText() + " " + isParentInFloatContext(ctx));
-        floatContext.put(ctx, isParentInFloatContext(ctx));
-        depth++;
-        super.visitBinary_expression(ctx);
-        depth--;
-        return null;
-
-    }
-
-    @Override
-    public Void visitExpression(GLSLParser.ExpressionContext ctx) {
-        debugLog("visitExpression " + ctx.getText() + " " + isParentInFloatContext(ctx));
-        floatContext.put(ctx, isParentInFloatContext(ctx));
-        depth++;
-        super.visitExpression(ctx);
-        depth--;
-        return null;
-
+        return floatContext[parent] == FLOAT;
     }
 
-    @Override
-    public Void visitConstant_expression(GLSLParser.Constant_expressionContext ctx) {
-        debugLog("visitConstant_expression " + ctx.getText() + " " + isParentInFloatContext(ctx));
-        floatContext.put(ctx, isParentInFloatContext(ctx));
-        depth++;
-        super.visitConstant_expression(ctx);
-        depth--;
-        return null;
-
-    }
-
-    @Override
-    public Void visitDeclaration(GLSLParser.DeclarationContext ctx) {
-        debugLog("visitDeclaration " + ctx.getText());
-        GLSLParser.Function_prototypeContext funcProtoCtx = ctx.function_prototype();
-        if (funcProtoCtx != null) {
-            if (isBuiltinOverride(funcProtoCtx)) {
+    private void visitDeclaration(int node) {
+        traceVisit(node);
+        int funcProto = ir.childOfRule(node, GLSLParser.RULE_function_prototype);
+        if (funcProto != -1) {
+            if (isBuiltinOverride(funcProto)) {
                 // remove function declaration
-                Token startToken = ctx.getStart();
-                Token stopToken = ctx.getStop();
-                for (int i = startToken.getTokenIndex(); i <= stopToken.getTokenIndex(); i++) {
-                    replacements.put(i, "");
+                rewriter.delete(ir.start(node), ir.stop(node));
+                return;
+            }
+        }
+        visitChildrenNested(node);
+    }
+
+    private void visitStruct_specifier(int node) {
+        traceVisit(node);
+        int nameNode = ir.childOfToken(node, GLSLLexer.IDENTIFIER);
+        int declarationList = ir.childOfRule(node, GLSLParser.RULE_struct_declaration_list);
+        if (nameNode != -1 && declarationList != -1) {
+            ArrayList<String> fieldNames = new ArrayList<>();
+            ArrayList<GLSLType> fieldTypes = new ArrayList<>();
+            for (int declaration = ir.firstChild(declarationList); declaration != -1; declaration = ir.nextSibling(declaration)) {
+                if (ir.rule(declaration) != GLSLParser.RULE_struct_declaration) continue;
+                int typeSpec = ir.childOfRule(declaration, GLSLParser.RULE_type_specifier);
+                int declaratorList = ir.childOfRule(declaration, GLSLParser.RULE_struct_declarator_list);
+                if (typeSpec == -1 || declaratorList == -1) continue;
+
+                // unknown field types are kept as null, arrays have the type of their elements
+                int nonArray = ir.childOfRule(typeSpec, GLSLParser.RULE_type_specifier_nonarray);
+                GLSLType fieldType = nonArray != -1 ? symbols.getTypeByName(ir.text(nonArray)) : null;
+                for (int declarator = ir.firstChild(declaratorList); declarator != -1; declarator = ir.nextSibling(declarator)) {
+                    if (ir.rule(declarator) != GLSLParser.RULE_struct_declarator) continue;
+                    int identifier = ir.childOfToken(declarator, GLSLLexer.IDENTIFIER);
+                    if (identifier == -1) continue;
+                    fieldNames.add(ir.text(identifier));
+                    fieldTypes.add(fieldType);
                 }
-                return null;
             }
+            symbols.declareStruct(ir.text(nameNode), fieldNames, fieldTypes);
         }
-        depth++;
-        super.visitDeclaration(ctx);
-        depth--;
-        return null;
-
-    }
-
-    @Override
-    public Void visitIdentifier_list(GLSLParser.Identifier_listContext ctx) {
-        debugLog("visitIdentifier_list " + ctx.getText());
-        depth++;
-        super.visitIdentifier_list(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitFunction_parameters(GLSLParser.Function_parametersContext ctx) {
-        debugLog("visitFunction_parameters " + ctx.getText());
-        depth++;
-        super.visitFunction_parameters(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitParameter_declarator(GLSLParser.Parameter_declaratorContext ctx) {
-        debugLog("visitParameter_declarator " + ctx.getText());
-        depth++;
-        super.visitParameter_declarator(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitParameter_declaration(GLSLParser.Parameter_declarationContext ctx) {
-        debugLog("visitParameter_declaration " + ctx.getText());
-        depth++;
-        super.visitParameter_declaration(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitParameter_type_specifier(GLSLParser.Parameter_type_specifierContext ctx) {
-        debugLog("visitParameter_type_specifier " + ctx.getText());
-        depth++;
-        super.visitParameter_type_specifier(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitInit_declarator_list(GLSLParser.Init_declarator_listContext ctx) {
-        debugLog("visitInit_declarator_list " + ctx.getText());
-        depth++;
-        super.visitInit_declarator_list(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitTypeless_declaration(GLSLParser.Typeless_declarationContext ctx) {
-        debugLog("visitTypeless_declaration " + ctx.getText() + " " + isParentInFloatContext(ctx));
-        floatContext.put(ctx, isParentInFloatContext(ctx));
-        depth++;
-        super.visitTypeless_declaration(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitFully_specified_type(GLSLParser.Fully_specified_typeContext ctx) {
-        debugLog("visitFully_specified_type " + ctx.getText());
-        depth++;
-        super.visitFully_specified_type(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitInvariant_qualifier(GLSLParser.Invariant_qualifierContext ctx) {
-        debugLog("visitInvariant_qualifier " + ctx.getText());
-        depth++;
-        super.visitInvariant_qualifier(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitInterpolation_qualifier(GLSLParser.Interpolation_qualifierContext ctx) {
-        debugLog("visitInterpolation_qualifier " + ctx.getText());
-        depth++;
-        super.visitInterpolation_qualifier(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitLayout_qualifier(GLSLParser.Layout_qualifierContext ctx) {
-        debugLog("visitLayout_qualifier " + ctx.getText());
-        depth++;
-        super.visitLayout_qualifier(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitLayout_qualifier_id_list(GLSLParser.Layout_qualifier_id_listContext ctx) {
-        debugLog("visitLayout_qualifier_id_list " + ctx.getText());
-        depth++;
-        super.visitLayout_qualifier_id_list(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitLayout_qualifier_id(GLSLParser.Layout_qualifier_idContext ctx) {
-        debugLog("visitLayout_qualifier_id " + ctx.getText());
-        depth++;
-        super.visitLayout_qualifier_id(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitPrecise_qualifier(GLSLParser.Precise_qualifierContext ctx) {
-        debugLog("visitPrecise_qualifier " + ctx.getText());
-        depth++;
-        super.visitPrecise_qualifier(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitType_qualifier(GLSLParser.Type_qualifierContext ctx) {
-        debugLog("visitType_qualifier " + ctx.getText());
-        depth++;
-        super.visitType_qualifier(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitSingle_type_qualifier(GLSLParser.Single_type_qualifierContext ctx) {
-        debugLog("visitSingle_type_qualifier " + ctx.getText());
-        depth++;
-        super.visitSingle_type_qualifier(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitStorage_qualifier(GLSLParser.Storage_qualifierContext ctx) {
-        debugLog("visitStorage_qualifier " + ctx.getText());
-        depth++;
-        super.visitStorage_qualifier(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitType_name_list(GLSLParser.Type_name_listContext ctx) {
-        debugLog("visitType_name_list " + ctx.getText());
-        depth++;
-        super.visitType_name_list(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitType_name(GLSLParser.Type_nameContext ctx) {
-        debugLog("visitType_name " + ctx.getText());
-        depth++;
-        super.visitType_name(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitType_specifier(GLSLParser.Type_specifierContext ctx) {
-        debugLog("visitType_specifier " + ctx.getText());
-        depth++;
-        super.visitType_specifier(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitArray_specifier(GLSLParser.Array_specifierContext ctx) {
-        debugLog("visitArray_specifier " + ctx.getText());
-        depth++;
-        super.visitArray_specifier(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitDimension(GLSLParser.DimensionContext ctx) {
-        debugLog("visitDimension " + ctx.getText());
-        depth++;
-        super.visitDimension(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitType_specifier_nonarray(GLSLParser.Type_specifier_nonarrayContext ctx) {
-        debugLog("visitType_specifier_nonarray " + ctx.getText());
-        depth++;
-        super.visitType_specifier_nonarray(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitPrecision_qualifier(GLSLParser.Precision_qualifierContext ctx) {
-        debugLog("visitPrecision_qualifier " + ctx.getText());
-        depth++;
-        super.visitPrecision_qualifier(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitStruct_specifier(GLSLParser.Struct_specifierContext ctx) {
-        debugLog("visitStruct_specifier " + ctx.getText());
-        depth++;
-        super.visitStruct_specifier(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitStruct_declaration_list(GLSLParser.Struct_declaration_listContext ctx) {
-        debugLog("visitStruct_declaration_list " + ctx.getText());
-        depth++;
-        super.visitStruct_declaration_list(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitStruct_declaration(GLSLParser.Struct_declarationContext ctx) {
-        debugLog("visitStruct_declaration " + ctx.getText());
-        depth++;
-        super.visitStruct_declaration(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitStruct_declarator_list(GLSLParser.Struct_declarator_listContext ctx) {
-        debugLog("visitStruct_declarator_list " + ctx.getText());
-        depth++;
-        super.visitStruct_declarator_list(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitStruct_declarator(GLSLParser.Struct_declaratorContext ctx) {
-        debugLog("visitStruct_declarator " + ctx.getText());
-        depth++;
-        super.visitStruct_declarator(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitInitializer(GLSLParser.InitializerContext ctx) {
-        debugLog("visitInitializer " + ctx.getText() + " " + isParentInFloatContext(ctx));
-        floatContext.put(ctx, isParentInFloatContext(ctx));
-        depth++;
-        super.visitInitializer(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitInitializer_list(GLSLParser.Initializer_listContext ctx) {
-        debugLog("visitInitializer_list " + ctx.getText());
-        depth++;
-        super.visitInitializer_list(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitDeclaration_statement(GLSLParser.Declaration_statementContext ctx) {
-        debugLog("visitDeclaration_statement " + ctx.getText());
-        depth++;
-        super.visitDeclaration_statement(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitStatement(GLSLParser.StatementContext ctx) {
-        debugLog("visitStatement " + ctx.getText());
-        depth++;
-        super.visitStatement(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitSimple_statement(GLSLParser.Simple_statementContext ctx) {
-        debugLog("visitSimple_statement " + ctx.getText());
-        depth++;
-        super.visitSimple_statement(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitCompound_statement(GLSLParser.Compound_statementContext ctx) {
-        debugLog("visitCompound_statement " + ctx.getText());
-        symbols.enterNewVarScope();
-        depth++;
-        super.visitCompound_statement(ctx);
-        depth--;
-        symbols.exitVarScope();
-        return null;
-    }
-
-    @Override
-    public Void visitStatement_no_new_scope(GLSLParser.Statement_no_new_scopeContext ctx) {
-        debugLog("visitStatement_no_new_scope " + ctx.getText());
-        depth++;
-        super.visitStatement_no_new_scope(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitCompound_statement_no_new_scope(GLSLParser.Compound_statement_no_new_scopeContext ctx) {
-        debugLog("visitCompound_statement_no_new_scope " + ctx.getText());
-        depth++;
-        super.visitCompound_statement_no_new_scope(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitStatement_list(GLSLParser.Statement_listContext ctx) {
-        debugLog("visitStatement_list " + ctx.getText());
-        depth++;
-        super.visitStatement_list(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitExpression_statement(GLSLParser.Expression_statementContext ctx) {
-        debugLog("visitExpression_statement " + ctx.getText());
-        depth++;
-        super.visitExpression_statement(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitSelection_statement(GLSLParser.Selection_statementContext ctx) {
-        debugLog("visitSelection_statement " + ctx.getText());
-        depth++;
-        super.visitSelection_statement(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitSelection_rest_statement(GLSLParser.Selection_rest_statementContext ctx) {
-        debugLog("visitSelection_rest_statement " + ctx.getText());
-        depth++;
-        super.visitSelection_rest_statement(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitCondition(GLSLParser.ConditionContext ctx) {
-        debugLog("visitCondition " + ctx.getText());
-        depth++;
-        super.visitCondition(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitSwitch_statement(GLSLParser.Switch_statementContext ctx) {
-        debugLog("visitSwitch_statement " + ctx.getText());
-        depth++;
-        super.visitSwitch_statement(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitCase_label(GLSLParser.Case_labelContext ctx) {
-        debugLog("visitCase_label " + ctx.getText());
-        depth++;
-        super.visitCase_label(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitIteration_statement(GLSLParser.Iteration_statementContext ctx) {
-        debugLog("visitIteration_statement " + ctx.getText());
-        depth++;
-        super.visitIteration_statement(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitFor_init_statement(GLSLParser.For_init_statementContext ctx) {
-        debugLog("visitFor_init_statement " + ctx.getText());
-        depth++;
-        super.visitFor_init_statement(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitFor_rest_statement(GLSLParser.For_rest_statementContext ctx) {
-        debugLog("visitFor_rest_statement " + ctx.getText());
-        depth++;
-        super.visitFor_rest_statement(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitJump_statement(GLSLParser.Jump_statementContext ctx) {
-        debugLog("visitJump_statement " + ctx.getText());
-        depth++;
-        super.visitJump_statement(ctx);
-        depth--;
-        return null;
-    }
-
-    @Override
-    public Void visitExternal_declaration(GLSLParser.External_declarationContext ctx) {
-        debugLog("visitExternal_declaration " + ctx.getText());
-        depth++;
-        super.visitExternal_declaration(ctx);
-        depth--;
-        return null;
+        visitChildrenNested(node);
     }
 
     // Symbol table for vars and functions
     public static class SymbolTable {
-        private static final List<String> GEN_TYPES = List.of("float", "vec2", "vec3", "vec4");
-        private static final List<String> MAT_TYPES = List.of("mat2", "mat3", "mat4");
-        private static final Map<String, ArrayList<FunctionRecord>> BUILTIN_FUNCTIONS = new HashMap<>();
-        private static final Map<String, GLSLType> BUILTIN_TYPES = new HashMap<>();
-
-        private final Deque<Map<String, GLSLType>> vars = new ArrayDeque<>(List.of(new HashMap<>()));
-        private final Map<String, ArrayList<FunctionRecord>> functions = new HashMap<>();
-        private final Map<String, GLSLType> types = new HashMap<>();
+        private static final Map<String, OverloadSet> BUILTIN_FUNCTIONS;
+        private static final Map<String, GLSLType> BUILTIN_TYPES = GLSLType.BUILTINS;
+
+        // innermost declaration of every visible variable, names declared in each scope are kept to undo them on scope exit
+        private final Map<String, VarBinding> vars = new HashMap<>();
+        private String[] scopeNames = new String[32];
+        private int scopeNamesSize = 0;
+        private int[] scopeStarts = new int[8];
+        private int scopeDepth = 0;
+
+        // latest declarations of functions and structs, linked to the ones they replaced
+        private final Map<String, Versioned<OverloadSet>> functions = new HashMap<>();
+        private final Map<String, Versioned<GLSLType>> types = new HashMap<>();
+
+        // number of declarations made in this table, every binding keeps the number it was made at
+        private int version = 0;
+        // table this one is layered over, of which only the first globalVersion declarations are visible
+        private final SymbolTable global;
+        private final int globalVersion;
 
         static {
-            GLSLType voidType = new GLSLType.PrimitiveType("void");
-            BUILTIN_TYPES.put(voidType.getName(), voidType);
+            // overloads declared on separate lines, e.g. texture2D with and without bias, are all kept, in profile order
+            Map<String, List<FunctionRecord>> builtinFunctions = new HashMap<>();
+            for (BuiltinFunctionTable.Declaration declaration : BuiltinFunctionTable.GLSL_ES_2.declarations(BUILTIN_TYPES)) {
+                builtinFunctions.computeIfAbsent(declaration.name(), k -> new ArrayList<>()).addAll(declaration.overloads());
+            }
 
-            GLSLType boolType = new GLSLType.PrimitiveType("bool");
-            BUILTIN_TYPES.put(boolType.getName(), boolType);
+            Map<String, OverloadSet> overloadSets = new HashMap<>();
+            builtinFunctions.forEach((name, overloads) -> overloadSets.put(name, new OverloadSet(overloads)));
+            BUILTIN_FUNCTIONS = Map.copyOf(overloadSets);
+        }
 
-            GLSLType intType = new GLSLType.PrimitiveType("int");
-            BUILTIN_TYPES.put(intType.getName(), intType);
-
-            GLSLType floatType = new GLSLType.PrimitiveType("float");
-            BUILTIN_TYPES.put(floatType.getName(), floatType);
-
-            GLSLType.VectorType vec2 = GLSLType.VectorType.from(floatType, 2);
-            BUILTIN_TYPES.put(vec2.getName(), vec2);
-
-            GLSLType.VectorType vec3 = GLSLType.VectorType.from(floatType, 3);
-            BUILTIN_TYPES.put(vec3.getName(), vec3);
-
-            GLSLType.VectorType vec4 = GLSLType.VectorType.from(floatType, 4);
-            BUILTIN_TYPES.put(vec4.getName(), vec4);
-
-            GLSLType.VectorType bvec2 = GLSLType.VectorType.from(boolType, 2);
-            BUILTIN_TYPES.put(bvec2.getName(), bvec2);
-
-            GLSLType.VectorType bvec3 = GLSLType.VectorType.from(boolType, 3);
-            BUILTIN_TYPES.put(bvec3.getName(), bvec3);
-
-            GLSLType.VectorType bvec4 = GLSLType.VectorType.from(boolType, 4);
-            BUILTIN_TYPES.put(bvec4.getName(), bvec4);
-
-            GLSLType.VectorType ivec2 = GLSLType.VectorType.from(intType, 2);
-            BUILTIN_TYPES.put(ivec2.getName(), ivec2);
-
-            GLSLType.VectorType ivec3 = GLSLType.VectorType.from(intType, 3);
-            BUILTIN_TYPES.put(ivec3.getName(), ivec3);
-
-            GLSLType.VectorType ivec4 = GLSLType.VectorType.from(intType, 4);
-            BUILTIN_TYPES.put(ivec4.getName(), ivec4);
-
-            GLSLType.PrimitiveType mat2 = new GLSLType.PrimitiveType("mat2");
-            BUILTIN_TYPES.put(mat2.getName(), mat2);
-
-            GLSLType.PrimitiveType mat3 = new GLSLType.PrimitiveType("mat3");
-            BUILTIN_TYPES.put(mat3.getName(), mat3);
-
-            GLSLType.PrimitiveType mat4 = new GLSLType.PrimitiveType("mat4");
-            BUILTIN_TYPES.put(mat4.getName(), mat4);
-
-            GLSLType.PrimitiveType sampler2D = new GLSLType.PrimitiveType("sampler2D");
-            BUILTIN_TYPES.put(sampler2D.getName(), sampler2D);
-
-            GLSLType.PrimitiveType samplerCube = new GLSLType.PrimitiveType("samplerCube");
-            BUILTIN_TYPES.put(samplerCube.getName(), samplerCube);
-
-            try (InputStream in = GLSLCoreToESVisitor.class.getClassLoader().getResourceAsStream("GLSL_ES_2_BUILTINS");
-                 BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
-
-                // matches lines like returnType name(paramType paramName, ...)
-                Pattern pattern = Pattern.compile("(\\w+)\\s+(\\w+)\\s*\\(([^)]*)\\)");
-
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    Matcher matcher = pattern.matcher(line);
-                    if (matcher.find()) {
-                        String returnTypeName = matcher.group(1);
-                        String name = matcher.group(2);
-                        String params = matcher.group(3).trim();
-
-                        ArrayList<FunctionRecord> overloads = new ArrayList<>();
-
-                        if (returnTypeName.equals("genType") || params.contains("genType")) {
-                            for (String genTypeName : GEN_TYPES) {
-                                GLSLType genType = BUILTIN_TYPES.get(genTypeName);
-
-                                GLSLType returnType = returnTypeName.equals("genType") ? genType : BUILTIN_TYPES.get(returnTypeName);
-
-                                ArrayList<GLSLType> paramTypes = new ArrayList<>();
-                                for (String param : params.split(",")) {
-                                    String paramTypeName = param.trim().split("\\s+")[0];
-                                    if (paramTypeName.equals("genType")) paramTypes.add(genType);
-                                    else paramTypes.add(BUILTIN_TYPES.get(paramTypeName));
-                                }
-                                FunctionRecord function = new FunctionRecord(name, returnType, paramTypes);
-                                overloads.add(function);
-                            }
-                        } else if (returnTypeName.equals("matType") || params.contains("matType")) {
-                            for (String matTypeName : MAT_TYPES) {
-                                GLSLType matType = BUILTIN_TYPES.get(matTypeName);
-
-                                GLSLType returnType = returnTypeName.equals("matType") ? matType : BUILTIN_TYPES.get(returnTypeName);
-
-                                ArrayList<GLSLType> paramTypes = new ArrayList<>();
-                                for (String param : params.split(",")) {
-                                    String paramTypeName = param.trim().split("\\s+")[0];
-                                    if (paramTypeName.equals("matType")) paramTypes.add(matType);
-                                    else paramTypes.add(BUILTIN_TYPES.get(paramTypeName));
-                                }
-                                FunctionRecord function = new FunctionRecord(name, returnType, paramTypes);
-                                overloads.add(function);
-                            }
-                        } else {
-                            GLSLType returnType = BUILTIN_TYPES.get(returnTypeName);
-                            ArrayList<GLSLType> paramTypes = new ArrayList<>();
-                            for (String param : params.split(",")) {
-                                String paramTypeName = param.trim().split("\\s+")[0];
-                                paramTypes.add(BUILTIN_TYPES.get(paramTypeName));
-                            }
-                            FunctionRecord function = new FunctionRecord(name, returnType, paramTypes);
-                            overloads.add(function);
-                        }
-
-                        BUILTIN_FUNCTIONS.put(name, overloads);
-                    }
-                }
+        public SymbolTable() {
+            this.global = null;
+            this.globalVersion = 0;
+        }
 
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to load built-in GLSL functions", e);
-            }
+        /**
+         * Table layered over {@code global} as it stands now, e.g. for a function analyzed on another thread.
+         * Declarations made here don't change {@code global}, and declarations {@code global} makes afterwards aren't
+         * visible here. Nothing is copied, so {@code global} must not be changed while this table is in use
+         * on another thread.
+         */
+        public SymbolTable(SymbolTable global) {
+            if (global.global != null)
+                throw new IllegalArgumentException("global must not be layered over another table");
+            this.global = global;
+            this.globalVersion = global.version;
         }
 
+        static OverloadSet getBuiltinOverloads(String name) {
+            return BUILTIN_FUNCTIONS.get(name);
+        }
 
-        public void declareFunction(String name, GLSLType returnType, ArrayList<GLSLType> paramTypes) {
-            ArrayList<FunctionRecord> overloads = functions.computeIfAbsent(name, k -> new ArrayList<>());
+        public FunctionRecord declareFunction(String name, GLSLType returnType, ArrayList<GLSLType> paramTypes) {
             if (paramTypes.contains(null))
                 throw new IllegalArgumentException("paramTypes must not contain null");
-            overloads.add(new FunctionRecord(name, returnType, paramTypes));
-        }
-
-        public ArrayList<FunctionRecord> getFunctionOverloads(String name) {
-            ArrayList<FunctionRecord> overloads = new ArrayList<>();
+            FunctionRecord function = new FunctionRecord(name, returnType, Collections.unmodifiableList(new ArrayList<>(paramTypes)));
 
-            ArrayList<FunctionRecord> userDefined = functions.get(name);
-            if (userDefined != null) overloads.addAll(userDefined);
-
-            ArrayList<FunctionRecord> builtin = BUILTIN_FUNCTIONS.get(name);
-            if (builtin != null) overloads.addAll(builtin);
+            // user defined overloads take precedence over built-in ones, so they come first
+            OverloadSet builtin = BUILTIN_FUNCTIONS.get(name);
+            int builtinCount = builtin != null ? builtin.all().size() : 0;
+            ArrayList<FunctionRecord> all = new ArrayList<>();
+            OverloadSet existing = getFunctionOverloads(name);
+            if (existing != null) all.addAll(existing.all().subList(0, existing.all().size() - builtinCount));
+            all.add(function);
+            if (builtin != null) all.addAll(builtin.all());
+            functions.put(name, new Versioned<>(new OverloadSet(all), version++, functions.get(name)));
+            return function;
+        }
 
-            return overloads;
+        /**
+         * @return user defined and built-in overloads of the function, or {@code null} if there are none
+         */
+        public OverloadSet getFunctionOverloads(String name) {
+            Versioned<OverloadSet> overloads = functions.get(name);
+            if (overloads == null && global != null) overloads = Versioned.at(global.functions.get(name), globalVersion);
+            return overloads != null ? overloads.value() : BUILTIN_FUNCTIONS.get(name);
         }
 
         public void enterNewVarScope() {
-            vars.push(new HashMap<>());
+            scopeDepth++;
+            if (scopeDepth == scopeStarts.length) scopeStarts = Arrays.copyOf(scopeStarts, scopeDepth * 2);
+            scopeStarts[scopeDepth] = scopeNamesSize;
         }
 
         public void exitVarScope() {
-            vars.pop();
+            int start = scopeStarts[scopeDepth];
+            for (int i = scopeNamesSize - 1; i >= start; i--) {
+                String name = scopeNames[i];
+                scopeNames[i] = null;
+                // redeclarations in the scope are linked too
+                VarBinding shadowed = vars.get(name);
+                while (shadowed != null && shadowed.scopeDepth() == scopeDepth) shadowed = shadowed.shadowed();
+                if (shadowed == null) vars.remove(name);
+                else vars.put(name, shadowed);
+            }
+            scopeNamesSize = start;
+            scopeDepth--;
         }
 
         public void declareVar(String name, GLSLType type) {
-            vars.peek().put(name, type);
+            declareVar(name, type, -1);
+        }
+
+        /**
+         * @param declaration IR node declaring the variable, for passes that tell apart variables of the same name
+         */
+        public void declareVar(String name, GLSLType type, int declaration) {
+            VarBinding existing = vars.get(name);
+            // a redeclaration replaces the binding, but stays linked to it for tables layered over this one
+            vars.put(name, new VarBinding(type, declaration, scopeDepth, version++, existing));
+            if (existing != null && existing.scopeDepth() == scopeDepth) return;
+
+            if (scopeNamesSize == scopeNames.length) scopeNames = Arrays.copyOf(scopeNames, scopeNamesSize * 2);
+            scopeNames[scopeNamesSize++] = name;
+        }
+
+        private VarBinding getVar(String name) {
+            VarBinding binding = vars.get(name);
+            if (binding != null || global == null) return binding;
+
+            binding = global.vars.get(name);
+            while (binding != null && binding.version() >= globalVersion) binding = binding.shadowed();
+            return binding;
         }
 
         public GLSLType getVarType(String name) {
-            for (Map<String, GLSLType> varScope: vars) {
-                if (varScope.containsKey(name)) return varScope.get(name);
-            }
-            return null;
+            VarBinding binding = getVar(name);
+            return binding != null ? binding.type() : null;
+        }
+
+        /**
+         * @return IR node the variable was declared by, {@code -1} if it isn't declared or was declared without one
+         */
+        public int getVarDeclaration(String name) {
+            VarBinding binding = getVar(name);
+            return binding != null ? binding.declaration() : -1;
         }
 
         public void declareStruct(String name, ArrayList<String> fieldNames, ArrayList<GLSLType> fieldTypes) {
             GLSLType struct = new GLSLType.StructType(name, fieldNames.toArray(new String[0]), fieldTypes.toArray(new GLSLType[0]));
-            types.put(name, struct);
+            types.put(name, new Versioned<>(struct, version++, types.get(name)));
         }
 
         public GLSLType getTypeByName(String name) {
             GLSLType type = BUILTIN_TYPES.get(name);
-            if (type == null) {
-                type = types.get(name);
+            if (type != null) return type;
+
+            Versioned<GLSLType> struct = types.get(name);
+            if (struct == null && global != null) struct = Versioned.at(global.types.get(name), globalVersion);
+            return struct != null ? struct.value() : null;
+        }
+
+        /**
+         * Innermost declaration of a variable, linked to the declaration it shadows or replaces.
+         */
+        private record VarBinding(GLSLType type, int declaration, int scopeDepth, int version, VarBinding shadowed) {
+        }
+
+        /**
+         * Declaration of a function or struct, linked to the one it replaced.
+         */
+        private record Versioned<T>(T value, int version, Versioned<T> previous) {
+            /**
+             * @return the latest of {@code latest} and the declarations it replaced made before {@code version}
+             */
+            static <T> Versioned<T> at(Versioned<T> latest, int version) {
+                while (latest != null && latest.version() >= version) latest = latest.previous();
+                return latest;
             }
-            return type;
         }
 
-        public record FunctionRecord(String name, GLSLType returnType, ArrayList<GLSLType> parameterTypes) {
+        public record FunctionRecord(String name, GLSLType returnType, List<GLSLType> parameterTypes) {
+        }
+
+        /**
+         * Immutable overloads of a function, indexed by number of parameters, so picking the candidates
+         * for a call site is a single lookup by index.
+         */
+        public static final class OverloadSet {
+            private final List<FunctionRecord> all;
+            private final List<List<FunctionRecord>> byArity;
+
+            OverloadSet(List<FunctionRecord> overloads) {
+                this.all = List.copyOf(overloads);
+
+                int maxArity = 0;
+                for (FunctionRecord overload : overloads) {
+                    maxArity = Math.max(maxArity, overload.parameterTypes().size());
+                }
+                List<List<FunctionRecord>> byArity = new ArrayList<>(maxArity + 1);
+                for (int arity = 0; arity <= maxArity; arity++) {
+                    ArrayList<FunctionRecord> withArity = new ArrayList<>();
+                    for (FunctionRecord overload : overloads) {
+                        if (overload.parameterTypes().size() == arity) withArity.add(overload);
+                    }
+                    byArity.add(List.copyOf(withArity));
+                }
+                this.byArity = List.copyOf(byArity);
+            }
+
+            public List<FunctionRecord> all() {
+                return all;
+            }
+
+            /**
+             * @return overloads taking exactly {@code arity} parameters, in declaration order
+             */
+            public List<FunctionRecord> withArity(int arity) {
+                return arity < byArity.size() ? byArity.get(arity) : List.of();
+            }
         }
     }
 }
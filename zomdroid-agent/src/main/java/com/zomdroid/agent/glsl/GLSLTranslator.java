@@ -0,0 +1,144 @@
+package com.zomdroid.agent.glsl;
+
+import com.zomdroid.agent.AgentOptions;
+import com.zomdroid.agent.glsl.antlr.GLSLLexer;
+import com.zomdroid.agent.glsl.antlr.GLSLParser;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Translates desktop GLSL shader source to GLSL ES: resolves its conditional directives with {@link Preprocessor}, lexes it with {@link GLSLCompatLexer}, parses it with
+ * {@link TwoStageParser}, lowers the parse tree to a {@link ShaderIR}, which replaces it from then on, collects edits
+ * over the IR with {@link GLSLCoreToESVisitor}, {@link ConstantFolder}, {@link DeadCodeEliminator} and optionally
+ * {@link PrecisionInference}, and applies them with {@link TokenRewriter}.
+ * The result can optionally be shrunk with {@link ShaderMinifier}.
+ * <p>
+ * The lexer, token stream and parser are created once and reset for every shader, so only the first translation
+ * of an instance pays for setting them up. Instances are not thread safe, use one per thread.
+ * <p>
+ * Shaders of at least {@code parallelTranslationTokens} tokens (8192 by default, {@code 0} disables it) are visited
+ * function by function on the common {@link ForkJoinPool} with {@link GLSLCoreToESVisitor#visitInParallel}, unless
+ * the translation is traced.
+ */
+public class GLSLTranslator {
+    private static final int PARALLEL_VISIT_TOKENS = AgentOptions.getInt("parallelTranslationTokens", 8192);
+
+    /**
+     * Optional stages of the translation. Different options produce different output for the same source.
+     *
+     * @param inferPrecision whether to run {@link PrecisionInference}
+     * @param minify         whether to run {@link ShaderMinifier} on the output
+     * @param shortenLocals  whether the minifier should also rename local variables and parameters
+     * @param preprocess     whether to resolve conditional directives with {@link Preprocessor} before parsing
+     * @param defines        macros predefined for the preprocessor, name to replacement text
+     */
+    public record Options(boolean inferPrecision, boolean minify, boolean shortenLocals,
+                          boolean preprocess, Map<String, String> defines) {
+        public static final Options DEFAULT = new Options(false, false, false, true, Map.of());
+
+        public Options {
+            defines = Collections.unmodifiableMap(new TreeMap<>(defines));
+        }
+    }
+
+    /**
+     * Translated source along with the time spent in each stage of the translation.
+     *
+     * @param lexNanos        time spent preprocessing and lexing the source
+     * @param rewriteNanos    time spent applying edits and minifying the output
+     * @param precisionReport variables lowered by {@link PrecisionInference}, empty if it didn't run
+     */
+    public record Result(String code, TwoStageParser.PredictionPath predictionPath,
+                         long lexNanos, long parseNanos, long sllNanos, long llNanos,
+                         long visitNanos, long rewriteNanos, int edits, List<String> precisionReport) {
+    }
+
+    private final Options options;
+    private final Preprocessor preprocessor;
+    private final ShaderMinifier minifier;
+    private final GLSLLexer lexer = new GLSLCompatLexer(CharStreams.fromString(""));
+    private final CommonTokenStream tokens = new CommonTokenStream(lexer);
+    private final GLSLParser parser = new GLSLParser(tokens);
+
+    public GLSLTranslator() {
+        this(Options.DEFAULT);
+    }
+
+    public GLSLTranslator(Options options) {
+        this.options = options;
+        this.preprocessor = options.preprocess() ? new Preprocessor(options.defines()) : null;
+        this.minifier = options.minify() ? new ShaderMinifier() : null;
+    }
+
+    public Result translate(String code) {
+        long lexStart = System.nanoTime();
+        if (TranslationTrace.LEVEL > TranslationTrace.OFF) {
+            TranslationTrace.begin();
+        }
+        if (preprocessor != null) {
+            code = preprocessor.process(code);
+        }
+        lexer.setInputStream(CharStreams.fromString(code));
+        tokens.setTokenSource(lexer);
+        tokens.fill();
+
+        long parseStart = System.nanoTime();
+        parser.setTokenStream(tokens);
+        TwoStageParser.Result parseResult = TwoStageParser.parse(parser);
+
+        long visitStart = System.nanoTime();
+        ShaderIR ir = ShaderIR.lower(parseResult.tree(), tokens.getTokens());
+        // the passes only use the IR, so the parse tree can be collected while they run
+        TwoStageParser.PredictionPath predictionPath = parseResult.path();
+        long sllNanos = parseResult.sllNanos();
+        long llNanos = parseResult.llNanos();
+        parseResult = null;
+
+        GLSLCoreToESVisitor visitor;
+        if (isParallelVisitWorthwhile()) {
+            visitor = GLSLCoreToESVisitor.visitInParallel(ir, ForkJoinPool.commonPool());
+        } else {
+            visitor = new GLSLCoreToESVisitor(ir);
+            visitor.visit();
+        }
+        List<String> precisionReport = List.of();
+        Set<String> renamableLocals = Set.of();
+        if (parser.getNumberOfSyntaxErrors() == 0) {
+            new ConstantFolder(ir, visitor::isFloatContext, visitor.rewriter).fold();
+            DeadCodeEliminator.eliminate(ir, tokens.getTokens(), visitor.rewriter);
+            if (options.inferPrecision()) {
+                PrecisionInference precisionInference = new PrecisionInference(ir, visitor.rewriter);
+                precisionInference.infer(tokens.getTokens());
+                precisionReport = precisionInference.getReport();
+            }
+            if (options.minify() && options.shortenLocals()) {
+                renamableLocals = ShaderMinifier.collectLocalNames(ir, tokens.getTokens());
+            }
+        }
+
+        long rewriteStart = System.nanoTime();
+        String result = visitor.rewriter.apply(code, tokens.getTokens());
+        if (minifier != null) {
+            result = minifier.minify(result, renamableLocals);
+        }
+        long end = System.nanoTime();
+
+        return new Result(result, predictionPath,
+                parseStart - lexStart, visitStart - parseStart, sllNanos, llNanos,
+                rewriteStart - visitStart, end - rewriteStart, visitor.rewriter.size(), precisionReport);
+    }
+
+    private boolean isParallelVisitWorthwhile() {
+        return PARALLEL_VISIT_TOKENS > 0 && tokens.size() >= PARALLEL_VISIT_TOKENS
+                && parser.getNumberOfSyntaxErrors() == 0 // error recovery can leave definitions incomplete
+                && TranslationTrace.LEVEL == TranslationTrace.OFF
+                && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+}
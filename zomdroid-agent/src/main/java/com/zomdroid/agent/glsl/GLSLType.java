@@ -1,17 +1,65 @@
 package com.zomdroid.agent.glsl;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
+/**
+ * Types known to the translator. Built-in types are interned: there is exactly one instance of each, so they are
+ * compared by reference, e.g. {@code type == GLSLType.FLOAT}, and looked up by name in {@link #BUILTINS}.
+ */
 public abstract class GLSLType {
+    public static final PrimitiveType VOID = new PrimitiveType("void");
+    public static final PrimitiveType BOOL = new PrimitiveType("bool");
+    public static final PrimitiveType INT = new PrimitiveType("int");
+    public static final PrimitiveType FLOAT = new PrimitiveType("float");
+
+    public static final VectorType VEC2 = new VectorType(FLOAT, 2, "vec");
+    public static final VectorType VEC3 = new VectorType(FLOAT, 3, "vec");
+    public static final VectorType VEC4 = new VectorType(FLOAT, 4, "vec");
+    public static final VectorType BVEC2 = new VectorType(BOOL, 2, "bvec");
+    public static final VectorType BVEC3 = new VectorType(BOOL, 3, "bvec");
+    public static final VectorType BVEC4 = new VectorType(BOOL, 4, "bvec");
+    public static final VectorType IVEC2 = new VectorType(INT, 2, "ivec");
+    public static final VectorType IVEC3 = new VectorType(INT, 3, "ivec");
+    public static final VectorType IVEC4 = new VectorType(INT, 4, "ivec");
+
+    public static final PrimitiveType MAT2 = new PrimitiveType("mat2");
+    public static final PrimitiveType MAT3 = new PrimitiveType("mat3");
+    public static final PrimitiveType MAT4 = new PrimitiveType("mat4");
+    public static final PrimitiveType SAMPLER2D = new PrimitiveType("sampler2D");
+    public static final PrimitiveType SAMPLER_CUBE = new PrimitiveType("samplerCube");
+
+    // vector types by size, indexes 0 and 1 are unused
+    private static final VectorType[] FLOAT_VECTORS = {null, null, VEC2, VEC3, VEC4};
+    private static final VectorType[] BOOL_VECTORS = {null, null, BVEC2, BVEC3, BVEC4};
+    private static final VectorType[] INT_VECTORS = {null, null, IVEC2, IVEC3, IVEC4};
+
+    /** Every built-in type by name. */
+    public static final Map<String, GLSLType> BUILTINS;
+
+    static {
+        Map<String, GLSLType> builtins = new HashMap<>();
+        for (GLSLType type : new GLSLType[]{VOID, BOOL, INT, FLOAT, VEC2, VEC3, VEC4, BVEC2, BVEC3, BVEC4,
+                IVEC2, IVEC3, IVEC4, MAT2, MAT3, MAT4, SAMPLER2D, SAMPLER_CUBE}) {
+            builtins.put(type.getName(), type);
+        }
+        BUILTINS = Map.copyOf(builtins);
+    }
+
     abstract String getName();
 
-    static class PrimitiveType extends GLSLType {
+    /**
+     * @return type of the components of a vector type, or the type itself for any other type
+     */
+    public GLSLType getComponentType() {
+        return this;
+    }
+
+    public static final class PrimitiveType extends GLSLType {
         private final String name;
 
-        public PrimitiveType(String name) {
+        private PrimitiveType(String name) {
             this.name = name;
         }
 
@@ -52,30 +100,53 @@ public abstract class GLSLType {
         }
     }
 
-    public static class VectorType extends StructType {
-        public static final ArrayList<Character> VECTOR_FIELDS = new ArrayList<>(List.of('x', 'y', 'z', 'w', 'r', 'g', 'b', 'a', 's', 't', 'p', 'q'));
+    public static final class VectorType extends StructType {
+        // component index of every swizzle character of the xyzw, rgba and stpq sets, -1 for other characters
+        private static final byte[] COMPONENTS = new byte[128];
+
+        static {
+            Arrays.fill(COMPONENTS, (byte) -1);
+            String sets = "xyzwrgbastpq";
+            for (int i = 0; i < sets.length(); i++) {
+                COMPONENTS[sets.charAt(i)] = (byte) (i % 4);
+            }
+        }
+
         private final int numFields;
         private final GLSLType baseType;
-        VectorType(GLSLType baseType, int numFields, String prefix) {
+
+        private VectorType(GLSLType baseType, int numFields, String prefix) {
             super(prefix + numFields);
             this.baseType = baseType;
             this.numFields = numFields;
-            if (numFields < 2 || numFields > 4)
-                throw new RuntimeException("Number of fields in vector type must be between 2 and 4");
         }
 
+        /**
+         * @return the interned vector type of {@code numFields} components of {@code baseType}
+         */
         public static VectorType from(GLSLType baseType, int numFields) {
-            String prefix = null;
-            if (baseType.getName().equals("float")) {
-                prefix = "vec";
-            } else if (baseType.getName().equals("bool")) {
-                prefix = "bvec";
-            } else if (baseType.getName().equals("int")) {
-                prefix = "ivec";
+            VectorType[] vectors;
+            if (baseType == FLOAT) {
+                vectors = FLOAT_VECTORS;
+            } else if (baseType == BOOL) {
+                vectors = BOOL_VECTORS;
+            } else if (baseType == INT) {
+                vectors = INT_VECTORS;
             } else {
                 throw new RuntimeException("Unknown base type: " + baseType.getName());
             }
-            return new VectorType(baseType, numFields, prefix);
+            if (numFields < 2 || numFields > 4)
+                throw new RuntimeException("Number of fields in vector type must be between 2 and 4");
+            return vectors[numFields];
+        }
+
+        @Override
+        public GLSLType getComponentType() {
+            return baseType;
+        }
+
+        public int getNumFields() {
+            return numFields;
         }
 
         @Override
@@ -83,23 +154,32 @@ public abstract class GLSLType {
             throw new UnsupportedOperationException("Adding fields to vector type is not allowed");
         }
 
+        /**
+         * Resolves a swizzle without allocating: the components it selects are collected into a bit mask, which must
+         * not select past the last component of this vector. Mixing the xyzw, rgba and stpq sets is tolerated.
+         */
+        @Override
         public GLSLType getFieldType(String swizzle) {
-            if (swizzle.isEmpty())
+            int length = swizzle.length();
+            if (length == 0)
                 throw new IllegalArgumentException("Swizzle cannot be empty");
-
-            for (char c : swizzle.toCharArray()) {
-                int i = VECTOR_FIELDS.indexOf(c);
-                if (i == -1)
+            if (length > 4)
+                throw new IllegalArgumentException("Swizzle " + swizzle + " selects more than 4 components");
+
+            int selected = 0;
+            for (int i = 0; i < length; i++) {
+                char c = swizzle.charAt(i);
+                int component = c < COMPONENTS.length ? COMPONENTS[c] : -1;
+                if (component == -1)
                     throw new IllegalArgumentException("Invalid swizzle character '" + c + "'");
-
-                if (i % 4 >= this.numFields)
-                    throw new IllegalArgumentException("Swizzle component " + c + " out of bounds for vector of size " + this.numFields);
+                selected |= 1 << component;
             }
+            if (selected >>> numFields != 0)
+                throw new IllegalArgumentException("Swizzle " + swizzle + " out of bounds for vector of size " + this.numFields);
 
-            return swizzle.length() == 1
+            return length == 1
                     ? baseType
-                    : VectorType.from(baseType, swizzle.length());
+                    : from(baseType, length);
         }
     }
 }
-
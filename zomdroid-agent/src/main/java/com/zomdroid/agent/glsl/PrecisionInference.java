@@ -0,0 +1,570 @@
+package com.zomdroid.agent.glsl;
+
+import com.zomdroid.agent.glsl.antlr.GLSLLexer;
+import com.zomdroid.agent.glsl.antlr.GLSLParser;
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Declares local variables of fragment shaders {@code mediump} where their values provably fit its range,
+ * which roughly doubles fragment throughput on Mali and Adreno GPUs compared with the {@code highp} default.
+ * <p>
+ * Every expression gets a bound of the magnitude of its components, computed bottom-up:
+ * <ul>
+ *   <li>literals are bounded by their value, texture samples, i.e. colors, by {@code 1}, and so are results of
+ *   built-ins bounded by definition, e.g. {@code normalize}, {@code sin} or {@code smoothstep},</li>
+ *   <li>operators, constructors, swizzles and the other built-ins combine the bounds of their operands, e.g. the sum
+ *   for {@code +}, the product for {@code *}, times the size of the matrix for a matrix product, or {@code n} times
+ *   the product for {@code dot} of {@code vecN}s, with the types told by {@link ExpressionTyper},</li>
+ *   <li>locals and {@code const} globals are bounded by every value assigned to them.</li>
+ * </ul>
+ * Anything else, e.g. a uniform, a parameter, {@code exp} or a call of a user defined function, is unbounded, and so
+ * is any expression exceeding {@value #MEDIUMP_RANGE}, the range GLSL ES guarantees for {@code mediump}, as its
+ * operations run at the precision of its operands, and any literal too small for it, e.g. an epsilon like
+ * {@code 1.0e-10}, which would be flushed to {@code 0}. A {@code float} or {@code vecN} local is lowered if it's
+ * bounded.
+ * <p>
+ * Bounds of variables start at {@code 0} and grow with the values assigned to them until none changes, so
+ * {@code x = x * 2.0} in a loop ends up unbounded; a bound still growing after {@value #MAX_ROUNDS} rounds is taken
+ * to be unbounded. Variables updated with {@code +=}, {@code -=}, {@code *=}, {@code ++} or {@code --} are
+ * accumulators and never lowered, nor are loop counters, locals passed to user defined functions, which might write
+ * them through {@code out} parameters, and locals used in texture coordinates, as the precision these need depends
+ * on the size of the sampled texture, which isn't known here. Uniforms and varyings keep their precision, as it has
+ * to match the other shader stage.
+ * <p>
+ * Variables are resolved with a {@link GLSLCoreToESVisitor.SymbolTable}, which keeps the node declaring each one.
+ * Opt-in; qualifiers are inserted through the {@link TokenRewriter} and described by {@link #getReport()}.
+ */
+public class PrecisionInference {
+    private static final double MEDIUMP_RANGE = 16384;
+    private static final double MEDIUMP_MIN = 1.0 / 16384;
+    private static final int MAX_ROUNDS = 16;
+    private static final double UNBOUNDED = Double.POSITIVE_INFINITY;
+    private static final Set<String> CANDIDATE_TYPES = Set.of("float", "vec2", "vec3", "vec4");
+    private static final Set<String> TEXTURE_FUNCTIONS = Set.of("texture2D", "texture2DProj", "texture2DLod",
+            "texture2DProjLod", "textureCube", "textureCubeLod");
+    private static final Set<String> FRAGMENT_OUTPUTS = Set.of("gl_FragColor", "gl_FragData");
+
+    /**
+     * A candidate for lowering, with the values assigned to it and the bound of their magnitude.
+     */
+    private static final class Variable {
+        final String name;
+        final List<Integer> values = new ArrayList<>();
+        double bound = 0;
+
+        Variable(String name) {
+            this.name = name;
+        }
+    }
+
+    private final ShaderIR ir;
+    private final TokenRewriter rewriter;
+    private final GLSLCoreToESVisitor.SymbolTable symbols = new GLSLCoreToESVisitor.SymbolTable();
+    private final ExpressionTyper typer;
+    // candidate declared by a declarator node or referenced by a primary expression node, null for anything else
+    private final Variable[] variableOf;
+    private final Map<Integer, List<Variable>> locals = new LinkedHashMap<>();
+    private final List<Variable> variables = new ArrayList<>();
+    private final Set<String> userFunctions = new HashSet<>();
+    private final List<String> report = new ArrayList<>();
+    private boolean inFunction = false;
+    private boolean inForInit = false;
+
+    public PrecisionInference(ShaderIR ir, TokenRewriter rewriter) {
+        this.ir = ir;
+        this.rewriter = rewriter;
+        this.typer = new ExpressionTyper(ir, symbols);
+        this.variableOf = new Variable[ir.size()];
+    }
+
+    /**
+     * Analyzes the translation unit of the IR and collects the qualifiers into the rewriter.
+     * Does nothing unless it's a fragment shader.
+     *
+     * @param tokens all tokens of the source, as returned by {@code BufferedTokenStream.getTokens()}
+     */
+    public void infer(List<Token> tokens) {
+        if (!isFragmentShader(tokens)) return;
+        for (int node = 0; node < ir.size(); node++) {
+            if (ir.rule(node) == GLSLParser.RULE_function_prototype) {
+                userFunctions.add(ir.text(ir.childOfToken(node, GLSLLexer.IDENTIFIER)));
+            }
+        }
+        walk(0);
+
+        // grow the bounds of variables until they cover every value assigned to them
+        boolean changed = true;
+        for (int round = 1; changed; round++) {
+            changed = false;
+            for (Variable variable : variables) {
+                double bound = variable.bound;
+                for (int value : variable.values) {
+                    bound = Math.max(bound, bound(value));
+                }
+                if (bound > variable.bound) {
+                    variable.bound = round > MAX_ROUNDS ? UNBOUNDED : bound;
+                    changed = true;
+                }
+            }
+        }
+
+        for (Map.Entry<Integer, List<Variable>> entry : locals.entrySet()) {
+            boolean allBounded = true;
+            for (Variable variable : entry.getValue()) {
+                allBounded &= variable.bound <= MEDIUMP_RANGE;
+            }
+            if (!allBounded) continue;
+
+            int single = ir.childOfRule(entry.getKey(), GLSLParser.RULE_single_declaration);
+            int type = ir.childOfRule(ir.childOfRule(single, GLSLParser.RULE_fully_specified_type), GLSLParser.RULE_type_specifier);
+            Token typeToken = tokens.get(ir.start(type));
+            rewriter.replace(typeToken.getTokenIndex(), "mediump " + typeToken.getText());
+            for (Variable variable : entry.getValue()) {
+                report.add("mediump " + ir.text(type) + " " + variable.name + " at line " + typeToken.getLine());
+            }
+        }
+    }
+
+    /**
+     * @return description of every lowered variable, empty if there were none
+     */
+    public List<String> getReport() {
+        return report;
+    }
+
+    private static boolean isFragmentShader(List<Token> tokens) {
+        for (Token token : tokens) {
+            if (token.getType() == GLSLLexer.IDENTIFIER && FRAGMENT_OUTPUTS.contains(token.getText())) return true;
+        }
+        return false;
+    }
+
+    // collecting variables and their values
+
+    private void walk(int node) {
+        switch (ir.rule(node)) {
+            case GLSLParser.RULE_function_prototype -> {
+            }
+            case GLSLParser.RULE_function_definition -> walkFunction_definition(node);
+            case GLSLParser.RULE_compound_statement, GLSLParser.RULE_iteration_statement -> {
+                symbols.enterNewVarScope();
+                walkChildren(node);
+                symbols.exitVarScope();
+            }
+            case GLSLParser.RULE_for_init_statement -> {
+                inForInit = true;
+                walkChildren(node);
+                inForInit = false;
+            }
+            case GLSLParser.RULE_condition -> walkCondition(node);
+            case GLSLParser.RULE_init_declarator_list -> walkInit_declarator_list(node);
+            case GLSLParser.RULE_primary_expression -> {
+                int identifier = ir.childOfRule(node, GLSLParser.RULE_variable_identifier);
+                if (identifier == -1) {
+                    walkChildren(node);
+                    return;
+                }
+                int declaration = symbols.getVarDeclaration(ir.text(identifier));
+                if (declaration != -1) variableOf[node] = variableOf[declaration];
+            }
+            case GLSLParser.RULE_binary_expression -> {
+                walkChildren(node);
+                // operand types decide the bound of matrix products, they are asked while the variables are in scope
+                typer.typeOf(node);
+            }
+            case GLSLParser.RULE_assignment_expression -> walkAssignment_expression(node);
+            case GLSLParser.RULE_unary_expression -> {
+                walkChildren(node);
+                if (ir.childOfToken(node, GLSLLexer.INC_OP) != -1 || ir.childOfToken(node, GLSLLexer.DEC_OP) != -1) {
+                    markUnbounded(target(ir.childOfRule(node, GLSLParser.RULE_unary_expression)));
+                }
+            }
+            case GLSLParser.RULE_postfix_expression -> walkPostfix_expression(node);
+            default -> walkChildren(node);
+        }
+    }
+
+    private void walkChildren(int node) {
+        for (int child = ir.firstChild(node); child != -1; child = ir.nextSibling(child)) {
+            walk(child);
+        }
+    }
+
+    private void walkFunction_definition(int node) {
+        inFunction = true;
+        symbols.enterNewVarScope();
+        int parameters = ir.childOfRule(ir.childOfRule(node, GLSLParser.RULE_function_prototype), GLSLParser.RULE_function_parameters);
+        if (parameters != -1) {
+            for (int parameter = ir.firstChild(parameters); parameter != -1; parameter = ir.nextSibling(parameter)) {
+                int declarator = ir.childOfRule(parameter, GLSLParser.RULE_parameter_declarator);
+                if (declarator == -1) continue;
+                int identifier = ir.childOfToken(declarator, GLSLLexer.IDENTIFIER);
+                int type = ir.childOfRule(declarator, GLSLParser.RULE_type_specifier);
+                // parameters are declared without a node, so they are never candidates
+                if (identifier != -1) symbols.declareVar(ir.text(identifier), symbols.getTypeByName(ir.text(type)));
+            }
+        }
+        walkChildren(node);
+        symbols.exitVarScope();
+        inFunction = false;
+    }
+
+    private void walkCondition(int node) {
+        walkChildren(node);
+        int identifier = ir.childOfToken(node, GLSLLexer.IDENTIFIER);
+        if (identifier == -1) return;
+        int type = ir.childOfRule(ir.childOfRule(node, GLSLParser.RULE_fully_specified_type), GLSLParser.RULE_type_specifier);
+        symbols.declareVar(ir.text(identifier), symbols.getTypeByName(ir.text(type)));
+    }
+
+    private void walkInit_declarator_list(int node) {
+        int single = ir.childOfRule(node, GLSLParser.RULE_single_declaration);
+        int type = ir.childOfRule(single, GLSLParser.RULE_fully_specified_type);
+        int typeSpecifier = ir.childOfRule(type, GLSLParser.RULE_type_specifier);
+        if (typeSpecifier == -1) return; // e.g. an interface block
+
+        boolean isConst = false;
+        boolean hasPrecision = false;
+        boolean isPlainOrConst = true;
+        int qualifiers = ir.childOfRule(type, GLSLParser.RULE_type_qualifier);
+        if (qualifiers != -1) {
+            for (int qualifier = ir.firstChild(qualifiers); qualifier != -1; qualifier = ir.nextSibling(qualifier)) {
+                int storage = ir.childOfRule(qualifier, GLSLParser.RULE_storage_qualifier);
+                if (ir.childOfRule(qualifier, GLSLParser.RULE_precision_qualifier) != -1) hasPrecision = true;
+                else if (storage != -1 && ir.childOfToken(storage, GLSLLexer.CONST) != -1) isConst = true;
+                else isPlainOrConst = false;
+            }
+        }
+        String typeName = ir.text(typeSpecifier);
+        boolean isCandidate = ir.childOfRule(typeSpecifier, GLSLParser.RULE_array_specifier) == -1
+                && CANDIDATE_TYPES.contains(typeName)
+                && isPlainOrConst && !hasPrecision && !inForInit
+                && (inFunction || isConst);
+        GLSLType varType = symbols.getTypeByName(typeName);
+
+        List<Integer> declarators = new ArrayList<>();
+        int first = ir.childOfRule(single, GLSLParser.RULE_typeless_declaration);
+        if (first != -1) declarators.add(first);
+        for (int child = ir.firstChild(node); child != -1; child = ir.nextSibling(child)) {
+            if (ir.rule(child) == GLSLParser.RULE_typeless_declaration) declarators.add(child);
+        }
+
+        List<Variable> declared = new ArrayList<>();
+        for (int declarator : declarators) {
+            // a variable is in scope after its initializer
+            walkChildren(declarator);
+            int identifier = ir.childOfToken(declarator, GLSLLexer.IDENTIFIER);
+            if (identifier == -1) continue;
+
+            String name = ir.text(identifier);
+            symbols.declareVar(name, varType, declarator);
+            if (!isCandidate || ir.childOfRule(declarator, GLSLParser.RULE_array_specifier) != -1) continue;
+
+            Variable variable = new Variable(name);
+            int initializer = ir.childOfRule(declarator, GLSLParser.RULE_initializer);
+            if (initializer != -1) {
+                int value = ir.childOfRule(initializer, GLSLParser.RULE_assignment_expression);
+                if (value != -1) variable.values.add(value);
+                else variable.bound = UNBOUNDED;
+            }
+            variableOf[declarator] = variable;
+            variables.add(variable);
+            declared.add(variable);
+        }
+
+        // globals are never lowered, only constants among them count as bounded values
+        if (inFunction && !declared.isEmpty() && declared.size() == declarators.size()) locals.put(node, declared);
+    }
+
+    private void walkAssignment_expression(int node) {
+        walkChildren(node);
+        int operator = ir.childOfRule(node, GLSLParser.RULE_assignment_operator);
+        if (operator == -1) return;
+
+        Variable target = target(ir.childOfRule(node, GLSLParser.RULE_unary_expression));
+        if (target == null) return;
+        int value = ir.childOfRule(node, GLSLParser.RULE_assignment_expression);
+        switch (ir.tokenType(ir.firstChild(operator))) {
+            case GLSLLexer.EQUAL -> target.values.add(value);
+            case GLSLLexer.DIV_ASSIGN -> {
+                // dividing by at least 1 can't grow the value
+                Double divisor = literalValue(value);
+                if (divisor == null || Math.abs(divisor) < 1) target.bound = UNBOUNDED;
+            }
+            // the other operators accumulate, e.g. sum += texture2D(s, uv).r * 1000.0 in a loop
+            default -> target.bound = UNBOUNDED;
+        }
+    }
+
+    private void walkPostfix_expression(int node) {
+        walkChildren(node);
+        int first = ir.firstChild(node);
+        int suffix = ir.nextSibling(first);
+        if (suffix == -1) return;
+
+        int suffixType = ir.tokenType(suffix);
+        if (suffixType == GLSLLexer.INC_OP || suffixType == GLSLLexer.DEC_OP) {
+            markUnbounded(target(first));
+            return;
+        }
+        if (suffixType != GLSLLexer.LEFT_PAREN || ir.rule(first) == GLSLParser.RULE_type_specifier) return;
+
+        int parameters = ir.childOfRule(node, GLSLParser.RULE_function_call_parameters);
+        // argument types decide the bound of built-ins like dot, they are asked while the variables are in scope
+        typer.typeOf(node);
+        List<Integer> arguments = arguments(parameters);
+        String function = ir.text(first);
+        if (userFunctions.contains(function)) {
+            // a user defined function may write its arguments
+            for (int argument : arguments) {
+                markUnbounded(target(argument));
+            }
+        } else if (TEXTURE_FUNCTIONS.contains(function) && arguments.size() >= 2) {
+            int coordinates = arguments.get(1);
+            for (int child = coordinates; child < ir.end(coordinates); child++) {
+                markUnbounded(variableOf[child]);
+            }
+        }
+    }
+
+    private static void markUnbounded(Variable variable) {
+        if (variable != null) variable.bound = UNBOUNDED;
+    }
+
+    /**
+     * @return candidate written by an assignment to {@code lvalue}, e.g. {@code color} for {@code color.rgb[0]}
+     */
+    private Variable target(int lvalue) {
+        int node = lvalue;
+        while (node != -1) {
+            if (ir.rule(node) == GLSLParser.RULE_primary_expression) {
+                int expression = ir.childOfRule(node, GLSLParser.RULE_expression);
+                if (expression == -1) return variableOf[node];
+                node = expression;
+            } else if (ir.rule(node) == GLSLParser.RULE_postfix_expression
+                    && (ir.childOfToken(node, GLSLLexer.DOT) != -1 || ir.childOfToken(node, GLSLLexer.LEFT_BRACKET) != -1)) {
+                node = ir.firstChild(node);
+            } else {
+                node = ir.childCount(node) == 1 ? ir.firstChild(node) : -1;
+            }
+        }
+        return null;
+    }
+
+    private List<Integer> arguments(int parameters) {
+        List<Integer> arguments = new ArrayList<>();
+        if (parameters == -1) return arguments;
+        for (int child = ir.firstChild(parameters); child != -1; child = ir.nextSibling(child)) {
+            if (ir.rule(child) == GLSLParser.RULE_assignment_expression) arguments.add(child);
+        }
+        return arguments;
+    }
+
+    // bounding the magnitude of values
+
+    /**
+     * @return bound of the magnitude of every component of the expression, {@link #UNBOUNDED} if it may exceed
+     * the range of {@code mediump}
+     */
+    private double bound(int node) {
+        double bound = switch (ir.rule(node)) {
+            // the value of a comma expression is its last operand
+            case GLSLParser.RULE_expression -> bound(ir.childOfRule(node, GLSLParser.RULE_assignment_expression));
+            case GLSLParser.RULE_assignment_expression -> assignmentBound(node);
+            case GLSLParser.RULE_constant_expression -> conditionalBound(node);
+            case GLSLParser.RULE_binary_expression -> binaryBound(node);
+            case GLSLParser.RULE_unary_expression -> unaryBound(node);
+            case GLSLParser.RULE_postfix_expression -> postfixBound(node);
+            case GLSLParser.RULE_primary_expression -> primaryBound(node);
+            default -> UNBOUNDED;
+        };
+        // also catches NaN, e.g. of an unbounded value times 0
+        return bound <= MEDIUMP_RANGE ? bound : UNBOUNDED;
+    }
+
+    private double assignmentBound(int node) {
+        int constant = ir.childOfRule(node, GLSLParser.RULE_constant_expression);
+        if (constant != -1) return bound(constant);
+
+        int operator = ir.childOfRule(node, GLSLParser.RULE_assignment_operator);
+        return ir.childOfToken(operator, GLSLLexer.EQUAL) != -1
+                ? bound(ir.childOfRule(node, GLSLParser.RULE_assignment_expression)) : UNBOUNDED;
+    }
+
+    private double conditionalBound(int node) {
+        if (ir.childOfToken(node, GLSLLexer.QUESTION) == -1) {
+            return bound(ir.childOfRule(node, GLSLParser.RULE_binary_expression));
+        }
+        return Math.max(bound(ir.childOfRule(node, GLSLParser.RULE_expression)),
+                bound(ir.childOfRule(node, GLSLParser.RULE_assignment_expression)));
+    }
+
+    private double binaryBound(int node) {
+        int left = ir.firstChild(node);
+        if (ir.rule(left) == GLSLParser.RULE_unary_expression) return bound(left);
+
+        int operator = ir.nextSibling(left);
+        int right = ir.nextSibling(operator);
+        return switch (ir.tokenType(operator)) {
+            case GLSLLexer.PLUS, GLSLLexer.DASH -> bound(left) + bound(right);
+            case GLSLLexer.STAR -> bound(left) * bound(right) * productTerms(typer.typeOf(left), typer.typeOf(right));
+            case GLSLLexer.SLASH -> {
+                Double divisor = literalValue(right);
+                yield divisor != null && divisor != 0 ? bound(left) / Math.abs(divisor) : UNBOUNDED;
+            }
+            case GLSLLexer.LEFT_ANGLE, GLSLLexer.RIGHT_ANGLE, GLSLLexer.LE_OP, GLSLLexer.GE_OP,
+                 GLSLLexer.EQ_OP, GLSLLexer.NE_OP, GLSLLexer.AND_OP, GLSLLexer.XOR_OP, GLSLLexer.OR_OP -> 1;
+            default -> UNBOUNDED;
+        };
+    }
+
+    /**
+     * @return number of products summed into a component of the product of operands of the given types, the size
+     * of the matrix for a matrix product and {@code 1} for a componentwise one
+     */
+    private static int productTerms(GLSLType left, GLSLType right) {
+        if (left == null || right == null) return 4; // could be a product with any matrix
+        if (isScalar(left) || isScalar(right)) return 1;
+        return Math.max(1, Math.max(matrixSize(left), matrixSize(right)));
+    }
+
+    private static boolean isScalar(GLSLType type) {
+        return type == GLSLType.FLOAT || type == GLSLType.INT || type == GLSLType.BOOL;
+    }
+
+    private static int matrixSize(GLSLType type) {
+        if (type == GLSLType.MAT2) return 2;
+        if (type == GLSLType.MAT3) return 3;
+        if (type == GLSLType.MAT4) return 4;
+        return 0;
+    }
+
+    private double unaryBound(int node) {
+        int postfix = ir.childOfRule(node, GLSLParser.RULE_postfix_expression);
+        if (postfix != -1) return bound(postfix);
+
+        int operator = ir.childOfRule(node, GLSLParser.RULE_unary_operator);
+        if (operator == -1) return UNBOUNDED; // ++ and --
+        return switch (ir.tokenType(ir.firstChild(operator))) {
+            case GLSLLexer.PLUS, GLSLLexer.DASH -> bound(ir.childOfRule(node, GLSLParser.RULE_unary_expression));
+            case GLSLLexer.BANG -> 1;
+            default -> UNBOUNDED;
+        };
+    }
+
+    private double postfixBound(int node) {
+        int first = ir.firstChild(node);
+        if (ir.rule(first) == GLSLParser.RULE_primary_expression) return bound(first);
+
+        List<Integer> arguments = arguments(ir.childOfRule(node, GLSLParser.RULE_function_call_parameters));
+        // constructors only pick and convert components
+        if (ir.rule(first) == GLSLParser.RULE_type_specifier) return maxBound(arguments, 0);
+
+        int suffix = ir.nextSibling(first);
+        if (suffix == -1) return UNBOUNDED;
+        return switch (ir.tokenType(suffix)) {
+            case GLSLLexer.LEFT_PAREN -> callBound(ir.text(first), arguments);
+            case GLSLLexer.LEFT_BRACKET -> bound(first);
+            // a swizzle, unless it's length() of an array
+            case GLSLLexer.DOT -> ir.childOfRule(ir.nextSibling(suffix), GLSLParser.RULE_function_call) == -1
+                    ? bound(first) : UNBOUNDED;
+            default -> UNBOUNDED;
+        };
+    }
+
+    private double callBound(String function, List<Integer> arguments) {
+        if (userFunctions.contains(function)) return UNBOUNDED;
+        if (TEXTURE_FUNCTIONS.contains(function)) return 1;
+        return switch (function) {
+            case "sin", "cos", "normalize", "sign", "fract", "step", "smoothstep",
+                 "lessThan", "lessThanEqual", "greaterThan", "greaterThanEqual", "equal", "notEqual",
+                 "any", "all", "not" -> 1;
+            case "asin", "acos", "atan" -> Math.PI;
+            case "radians" -> argumentBound(arguments, 0) * Math.PI / 180;
+            case "degrees" -> argumentBound(arguments, 0) * 180 / Math.PI;
+            case "abs", "min", "max" -> maxBound(arguments, 0);
+            case "faceforward" -> argumentBound(arguments, 0);
+            case "floor", "ceil" -> argumentBound(arguments, 0) + 1;
+            case "sqrt" -> Math.sqrt(argumentBound(arguments, 0));
+            // the result is smaller than the divisor
+            case "mod" -> argumentBound(arguments, 1);
+            case "clamp" -> maxBound(arguments, 1);
+            // mix(x, y, a) is x * (1 - a) + y * a, a isn't necessarily in [0, 1]
+            case "mix" -> argumentBound(arguments, 0) * (1 + argumentBound(arguments, 2))
+                    + argumentBound(arguments, 1) * argumentBound(arguments, 2);
+            case "matrixCompMult" -> argumentBound(arguments, 0) * argumentBound(arguments, 1);
+            case "dot" -> components(arguments) * argumentBound(arguments, 0) * argumentBound(arguments, 1);
+            case "length" -> Math.sqrt(components(arguments)) * argumentBound(arguments, 0);
+            case "distance" -> Math.sqrt(components(arguments)) * (argumentBound(arguments, 0) + argumentBound(arguments, 1));
+            case "cross" -> 2 * argumentBound(arguments, 0) * argumentBound(arguments, 1);
+            // reflect(I, N) is I - 2 * dot(N, I) * N
+            case "reflect" -> argumentBound(arguments, 0) + 2 * components(arguments)
+                    * argumentBound(arguments, 0) * argumentBound(arguments, 1) * argumentBound(arguments, 1);
+            default -> UNBOUNDED;
+        };
+    }
+
+    private double argumentBound(List<Integer> arguments, int index) {
+        return index < arguments.size() ? bound(arguments.get(index)) : UNBOUNDED;
+    }
+
+    /**
+     * @return largest bound of the arguments from {@code from} on, {@code 0} if there are none
+     */
+    private double maxBound(List<Integer> arguments, int from) {
+        double bound = 0;
+        for (int i = from; i < arguments.size(); i++) {
+            bound = Math.max(bound, bound(arguments.get(i)));
+        }
+        return bound;
+    }
+
+    /**
+     * @return number of components of the first argument, {@code 4} if its type is unknown
+     */
+    private int components(List<Integer> arguments) {
+        GLSLType type = arguments.isEmpty() ? null : typer.typeOf(arguments.get(0));
+        if (type instanceof GLSLType.VectorType vector) return vector.getNumFields();
+        return type == GLSLType.FLOAT ? 1 : 4;
+    }
+
+    private double primaryBound(int node) {
+        if (ir.childOfRule(node, GLSLParser.RULE_variable_identifier) != -1) {
+            Variable variable = variableOf[node];
+            return variable != null ? variable.bound : UNBOUNDED;
+        }
+        int expression = ir.childOfRule(node, GLSLParser.RULE_expression);
+        if (expression != -1) return bound(expression);
+        if (ir.childOfToken(node, GLSLLexer.TRUE) != -1 || ir.childOfToken(node, GLSLLexer.FALSE) != -1) return 1;
+        Double literal = literalValue(node);
+        if (literal == null || (literal != 0 && Math.abs(literal) < MEDIUMP_MIN)) return UNBOUNDED;
+        return Math.abs(literal);
+    }
+
+    /**
+     * @return value of an expression that is just a literal, {@code null} for any other expression
+     */
+    private Double literalValue(int node) {
+        while (ir.rule(node) != GLSLParser.RULE_primary_expression) {
+            if (ir.childCount(node) != 1) return null;
+            node = ir.firstChild(node);
+        }
+        int literal = ir.firstChild(node);
+        try {
+            return switch (ir.tokenType(literal)) {
+                case GLSLLexer.FLOATCONSTANT -> Double.parseDouble(ir.text(literal));
+                case GLSLLexer.INTCONSTANT -> (double) Long.decode(ir.text(literal));
+                default -> null;
+            };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,598 @@
+package com.zomdroid.agent.glsl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves conditional compilation in shader source before it's parsed.
+ * <p>
+ * {@link com.zomdroid.agent.glsl.antlr.GLSLLexer} returns the code inside {@code #if} blocks as opaque text on the
+ * directives channel, so it's never translated. This class keeps a macro table while going through the source,
+ * evaluates {@code #if}, {@code #ifdef}, {@code #ifndef} and {@code #elif} conditions against it and blanks out the
+ * directives and the branches that aren't taken, so the parser only sees code that will actually be compiled.
+ * Blanked lines are kept as empty lines so line numbers in driver errors still match the original source.
+ * <p>
+ * The output is still valid GLSL for the driver: {@code #define} and {@code #undef} are kept as they are and macros
+ * aren't expanded in code. A conditional is only resolved if its value is certain, i.e. it doesn't depend on macros
+ * predefined by the implementation, like {@code GL_ES} or {@code GL_FRAGMENT_PRECISION_HIGH}, on undefined macros,
+ * function-like macros or on macros changed in a block that was left unresolved. Such conditionals are left in
+ * place as a whole.
+ * <p>
+ * Results are cached per source and define set, so permutations of a shader share the work.
+ */
+public class Preprocessor {
+    private static final int MAX_CACHED_VARIANTS = 1024;
+
+    private record Macro(List<String> params, String body) {
+    }
+
+    private record Variant(String code, Map<String, String> defines, int definesHash) {
+        @Override
+        public int hashCode() {
+            return code.hashCode() * 31 + definesHash;
+        }
+    }
+
+    /**
+     * Value of a condition that can't be evaluated before the driver compiles the shader.
+     */
+    private static final class UnknownValueException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnknownValueException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * How the lines in the current conditional block are handled.
+     */
+    private enum State {
+        /**
+         * Live code, directives are evaluated.
+         */
+        LIVE,
+        /**
+         * Code of an unresolved conditional, copied as it is.
+         */
+        RAW,
+        /**
+         * Code of a branch that isn't taken, blanked out.
+         */
+        SKIP
+    }
+
+    private static final class Conditional {
+        final State enclosing;
+        /**
+         * Index of the taken branch, -1 if none is taken, ignored unless {@link #resolved}.
+         */
+        final int taken;
+        final boolean resolved;
+        int branch;
+
+        Conditional(State enclosing, int taken, boolean resolved) {
+            this.enclosing = enclosing;
+            this.taken = taken;
+            this.resolved = resolved;
+        }
+
+        State state() {
+            if (enclosing != State.LIVE) return enclosing;
+            if (!resolved) return State.RAW;
+            return branch == taken ? State.LIVE : State.SKIP;
+        }
+    }
+
+    /**
+     * A line of source, possibly continued over several physical lines with a backslash.
+     *
+     * @param keyword   directive name, e.g. {@code ifdef}, or {@code null} if this isn't a directive
+     * @param arguments text of the directive after its name, with comments removed
+     */
+    private record Line(int first, int count, String keyword, String arguments) {
+    }
+
+    private static final Map<Variant, String> variants = new ConcurrentHashMap<>();
+
+    private final Map<String, String> defines;
+    private final int definesHash;
+
+    private final Map<String, Macro> macros = new HashMap<>();
+    private final Set<String> unknown = new HashSet<>();
+
+    /**
+     * @param defines macros to define before the first line of every shader, name to replacement text
+     */
+    public Preprocessor(Map<String, String> defines) {
+        this.defines = Map.copyOf(defines);
+        this.definesHash = this.defines.hashCode();
+    }
+
+    public String process(String code) {
+        Variant variant = new Variant(code, defines, definesHash);
+        String cached = variants.get(variant);
+        if (cached != null) return cached;
+
+        String result = resolve(code);
+        if (variants.size() >= MAX_CACHED_VARIANTS) variants.clear();
+        variants.put(variant, result);
+        return result;
+    }
+
+    private String resolve(String code) {
+        macros.clear();
+        unknown.clear();
+        defines.forEach((name, body) -> macros.put(name, new Macro(null, body)));
+
+        String[] physical = code.split("\n", -1);
+        List<Line> lines = splitLines(physical);
+        if (lines.stream().noneMatch(line -> isConditional(line.keyword()))) return code;
+
+        StringBuilder sb = new StringBuilder(code.length());
+        Deque<Conditional> conditionals = new ArrayDeque<>();
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            State state = conditionals.isEmpty() ? State.LIVE : conditionals.peek().state();
+            boolean keep;
+            if (line.keyword() == null) {
+                keep = state != State.SKIP;
+            } else {
+                switch (line.keyword()) {
+                    case "if", "ifdef", "ifndef" -> {
+                        Conditional conditional = state == State.LIVE ? evaluate(lines, i) : new Conditional(state, -1, true);
+                        conditionals.push(conditional);
+                        keep = conditional.state() == State.RAW;
+                    }
+                    case "elif", "else" -> {
+                        Conditional conditional = conditionals.peek();
+                        if (conditional == null) {
+                            keep = true;
+                        } else {
+                            conditional.branch++;
+                            keep = conditional.enclosing == State.RAW || (conditional.enclosing == State.LIVE && !conditional.resolved);
+                        }
+                    }
+                    case "endif" -> {
+                        Conditional conditional = conditionals.poll();
+                        keep = conditional == null || conditional.enclosing == State.RAW
+                                || (conditional.enclosing == State.LIVE && !conditional.resolved);
+                    }
+                    default -> {
+                        keep = state != State.SKIP;
+                        if (state == State.LIVE) {
+                            define(line);
+                        } else if (state == State.RAW) {
+                            forget(line);
+                        }
+                    }
+                }
+            }
+
+            for (int j = 0; j < line.count(); j++) {
+                if (line.first() + j > 0) sb.append('\n');
+                if (keep) sb.append(physical[line.first() + j]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses a define set given as {@code NAME=value;OTHER}, where a name without a value is defined as {@code 1}.
+     */
+    public static Map<String, String> parseDefines(String text) {
+        Map<String, String> defines = new TreeMap<>();
+        if (text == null) return defines;
+        for (String define : text.split(";")) {
+            define = define.trim();
+            if (define.isEmpty()) continue;
+            int eq = define.indexOf('=');
+            if (eq == -1) {
+                defines.put(define, "1");
+            } else {
+                defines.put(define.substring(0, eq).trim(), define.substring(eq + 1).trim());
+            }
+        }
+        return defines;
+    }
+
+    private static boolean isConditional(String keyword) {
+        return keyword != null && (keyword.equals("if") || keyword.equals("ifdef") || keyword.equals("ifndef"));
+    }
+
+    /**
+     * Evaluates the branch conditions of the conditional starting at line {@code start} in order,
+     * until one of them is true. Branches before the taken one are skipped, so macros can't change in between.
+     */
+    private Conditional evaluate(List<Line> lines, int start) {
+        int branch = 0;
+        int depth = 0;
+        for (int i = start; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            String keyword = line.keyword();
+            if (keyword == null) continue;
+            if (i > start && isConditional(keyword)) {
+                depth++;
+                continue;
+            }
+            if (keyword.equals("endif")) {
+                if (depth-- == 0) break;
+                continue;
+            }
+            if (depth > 0 || (i > start && !keyword.equals("elif") && !keyword.equals("else"))) continue;
+
+            try {
+                if (condition(keyword, line.arguments())) return new Conditional(State.LIVE, branch, true);
+            } catch (UnknownValueException e) {
+                return new Conditional(State.LIVE, -1, false);
+            }
+            branch++;
+        }
+        return new Conditional(State.LIVE, -1, true);
+    }
+
+    private boolean condition(String keyword, String arguments) throws UnknownValueException {
+        switch (keyword) {
+            case "ifdef", "ifndef" -> {
+                String name = firstIdentifier(arguments);
+                if (name == null) throw new UnknownValueException();
+                return isDefined(name) == keyword.equals("ifdef");
+            }
+            case "else" -> {
+                return true;
+            }
+            default -> {
+                return new Expression(tokenize(arguments)).evaluate() != 0;
+            }
+        }
+    }
+
+    private boolean isDefined(String name) throws UnknownValueException {
+        if (macros.containsKey(name)) return true;
+        if (unknown.contains(name) || isImplementationName(name)) throw new UnknownValueException();
+        return false;
+    }
+
+    /**
+     * @return whether the implementation may predefine a macro with this name
+     */
+    private static boolean isImplementationName(String name) {
+        return name.startsWith("GL_") || name.startsWith("__");
+    }
+
+    private void define(Line line) {
+        switch (line.keyword()) {
+            case "define" -> {
+                String arguments = line.arguments();
+                String name = firstIdentifier(arguments);
+                if (name == null) return;
+                int end = name.length();
+                List<String> params = null;
+                if (end < arguments.length() && arguments.charAt(end) == '(') {
+                    int close = arguments.indexOf(')', end);
+                    if (close == -1) return;
+                    params = new ArrayList<>();
+                    for (String param : arguments.substring(end + 1, close).split(",")) {
+                        if (!param.isBlank()) params.add(param.trim());
+                    }
+                    end = close + 1;
+                }
+                macros.put(name, new Macro(params, arguments.substring(end).trim()));
+                unknown.remove(name);
+            }
+            case "undef" -> {
+                String name = firstIdentifier(line.arguments());
+                if (name == null) return;
+                macros.remove(name);
+                unknown.remove(name);
+            }
+            case "version" -> {
+                String version = line.arguments().trim().split("\\s+")[0];
+                if (!version.isEmpty()) macros.put("__VERSION__", new Macro(null, version));
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Macros defined or undefined in an unresolved conditional may or may not be defined afterwards.
+     */
+    private void forget(Line line) {
+        if (!line.keyword().equals("define") && !line.keyword().equals("undef")) return;
+        String name = firstIdentifier(line.arguments());
+        if (name == null) return;
+        macros.remove(name);
+        unknown.add(name);
+    }
+
+    /**
+     * Joins continued lines and finds directives, ignoring {@code #} inside block comments.
+     */
+    private static List<Line> splitLines(String[] physical) {
+        List<Line> lines = new ArrayList<>(physical.length);
+        boolean inComment = false;
+        int i = 0;
+        while (i < physical.length) {
+            int first = i;
+            boolean directive = !inComment && physical[i].stripLeading().startsWith("#");
+            StringBuilder text = new StringBuilder(physical[i]);
+            while (endsWithContinuation(physical[i]) && i + 1 < physical.length) {
+                text.setLength(text.length() - (physical[i].endsWith("\r") ? 2 : 1));
+                text.append(physical[++i]);
+            }
+            i++;
+
+            StringBuilder stripped = new StringBuilder(text.length());
+            inComment = stripComments(text, inComment, stripped);
+            if (!directive) {
+                lines.add(new Line(first, i - first, null, null));
+                continue;
+            }
+
+            String content = stripped.toString().strip().substring(1).stripLeading();
+            int end = 0;
+            while (end < content.length() && Character.isLetter(content.charAt(end))) end++;
+            lines.add(new Line(first, i - first, content.substring(0, end), content.substring(end).strip()));
+        }
+        return lines;
+    }
+
+    private static boolean endsWithContinuation(String line) {
+        return line.endsWith("\\") || line.endsWith("\\\r");
+    }
+
+    /**
+     * Appends {@code text} with every comment replaced by a space to {@code out}.
+     *
+     * @return whether a block comment is still open at the end of the text
+     */
+    private static boolean stripComments(CharSequence text, boolean inComment, StringBuilder out) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            char next = i + 1 < length ? text.charAt(i + 1) : 0;
+            if (inComment) {
+                if (c == '*' && next == '/') {
+                    inComment = false;
+                    i++;
+                }
+            } else if (c == '/' && next == '/') {
+                out.append(' ');
+                break;
+            } else if (c == '/' && next == '*') {
+                out.append(' ');
+                inComment = true;
+                i++;
+            } else {
+                out.append(c);
+            }
+        }
+        return inComment;
+    }
+
+    private static String firstIdentifier(String text) {
+        if (text.isEmpty() || !isIdentifierStart(text.charAt(0))) return null;
+        int end = 1;
+        while (end < text.length() && isIdentifierPart(text.charAt(end))) end++;
+        return text.substring(0, end);
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static List<String> tokenize(String text) throws UnknownValueException {
+        List<String> tokens = new ArrayList<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            } else if (isIdentifierStart(c) || Character.isDigit(c)) {
+                while (i < length && isIdentifierPart(text.charAt(i))) i++;
+            } else if (i + 1 < length && isTwoCharOperator(c, text.charAt(i + 1))) {
+                i += 2;
+            } else if ("+-*/%<>&^|!~()".indexOf(c) != -1) {
+                i++;
+            } else {
+                throw new UnknownValueException();
+            }
+            tokens.add(text.substring(start, i));
+        }
+        return tokens;
+    }
+
+    private static boolean isTwoCharOperator(char first, char second) {
+        return switch (first) {
+            case '<' -> second == '<' || second == '=';
+            case '>' -> second == '>' || second == '=';
+            case '=', '!' -> second == '=';
+            case '&' -> second == '&';
+            case '|' -> second == '|';
+            default -> false;
+        };
+    }
+
+    /**
+     * Integer expression of an {@code #if} or {@code #elif}, evaluated by recursive descent after macro expansion.
+     */
+    private final class Expression {
+        private final List<String> tokens = new ArrayList<>();
+        private int position;
+
+        Expression(List<String> tokens) throws UnknownValueException {
+            expand(tokens, Set.of(), this.tokens);
+        }
+
+        long evaluate() throws UnknownValueException {
+            long value = logicalOr();
+            if (position != tokens.size()) throw new UnknownValueException();
+            return value;
+        }
+
+        private void expand(List<String> input, Set<String> expanding, List<String> out) throws UnknownValueException {
+            for (int i = 0; i < input.size(); i++) {
+                String token = input.get(i);
+                if (token.equals("defined")) {
+                    boolean parenthesized = i + 1 < input.size() && input.get(i + 1).equals("(");
+                    int nameIndex = parenthesized ? i + 2 : i + 1;
+                    if (nameIndex >= input.size()) throw new UnknownValueException();
+                    if (parenthesized && (nameIndex + 1 >= input.size() || !input.get(nameIndex + 1).equals(")"))) {
+                        throw new UnknownValueException();
+                    }
+                    out.add(isDefined(input.get(nameIndex)) ? "1" : "0");
+                    i = parenthesized ? nameIndex + 1 : nameIndex;
+                } else if (isIdentifierStart(token.charAt(0))) {
+                    Macro macro = macros.get(token);
+                    if (macro == null || macro.params() != null || expanding.contains(token)) {
+                        throw new UnknownValueException();
+                    }
+                    Set<String> nested = new HashSet<>(expanding);
+                    nested.add(token);
+                    expand(tokenize(macro.body()), nested, out);
+                } else {
+                    out.add(token);
+                }
+            }
+        }
+
+        private boolean accept(String operator) {
+            if (position < tokens.size() && tokens.get(position).equals(operator)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private long logicalOr() throws UnknownValueException {
+            long value = logicalAnd();
+            while (accept("||")) {
+                long right = logicalAnd();
+                value = (value != 0 || right != 0) ? 1 : 0;
+            }
+            return value;
+        }
+
+        private long logicalAnd() throws UnknownValueException {
+            long value = bitwiseOr();
+            while (accept("&&")) {
+                long right = bitwiseOr();
+                value = (value != 0 && right != 0) ? 1 : 0;
+            }
+            return value;
+        }
+
+        private long bitwiseOr() throws UnknownValueException {
+            long value = bitwiseXor();
+            while (accept("|")) value |= bitwiseXor();
+            return value;
+        }
+
+        private long bitwiseXor() throws UnknownValueException {
+            long value = bitwiseAnd();
+            while (accept("^")) value ^= bitwiseAnd();
+            return value;
+        }
+
+        private long bitwiseAnd() throws UnknownValueException {
+            long value = equality();
+            while (accept("&")) value &= equality();
+            return value;
+        }
+
+        private long equality() throws UnknownValueException {
+            long value = relational();
+            while (true) {
+                if (accept("==")) value = value == relational() ? 1 : 0;
+                else if (accept("!=")) value = value != relational() ? 1 : 0;
+                else return value;
+            }
+        }
+
+        private long relational() throws UnknownValueException {
+            long value = shift();
+            while (true) {
+                if (accept("<")) value = value < shift() ? 1 : 0;
+                else if (accept(">")) value = value > shift() ? 1 : 0;
+                else if (accept("<=")) value = value <= shift() ? 1 : 0;
+                else if (accept(">=")) value = value >= shift() ? 1 : 0;
+                else return value;
+            }
+        }
+
+        private long shift() throws UnknownValueException {
+            long value = additive();
+            while (true) {
+                if (accept("<<")) value <<= additive();
+                else if (accept(">>")) value >>= additive();
+                else return value;
+            }
+        }
+
+        private long additive() throws UnknownValueException {
+            long value = multiplicative();
+            while (true) {
+                if (accept("+")) value += multiplicative();
+                else if (accept("-")) value -= multiplicative();
+                else return value;
+            }
+        }
+
+        private long multiplicative() throws UnknownValueException {
+            long value = unary();
+            while (true) {
+                if (accept("*")) {
+                    value *= unary();
+                } else if (accept("/") || accept("%")) {
+                    boolean division = tokens.get(position - 1).equals("/");
+                    long divisor = unary();
+                    if (divisor == 0) throw new UnknownValueException();
+                    value = division ? value / divisor : value % divisor;
+                } else {
+                    return value;
+                }
+            }
+        }
+
+        private long unary() throws UnknownValueException {
+            if (accept("+")) return unary();
+            if (accept("-")) return -unary();
+            if (accept("~")) return ~unary();
+            if (accept("!")) return unary() == 0 ? 1 : 0;
+            if (accept("(")) {
+                long value = logicalOr();
+                if (!accept(")")) throw new UnknownValueException();
+                return value;
+            }
+            if (position >= tokens.size()) throw new UnknownValueException();
+            return number(tokens.get(position++));
+        }
+
+        private long number(String token) throws UnknownValueException {
+            String digits = token.endsWith("u") || token.endsWith("U") ? token.substring(0, token.length() - 1) : token;
+            try {
+                if (digits.startsWith("0x") || digits.startsWith("0X")) return Long.parseLong(digits.substring(2), 16);
+                if (digits.length() > 1 && digits.startsWith("0")) return Long.parseLong(digits.substring(1), 8);
+                return Long.parseLong(digits);
+            } catch (NumberFormatException e) {
+                throw new UnknownValueException();
+            }
+        }
+    }
+}
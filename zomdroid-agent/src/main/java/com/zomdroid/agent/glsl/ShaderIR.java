@@ -0,0 +1,259 @@
+package com.zomdroid.agent.glsl;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact copy of a parse tree that the analysis passes run over instead of the ANTLR contexts, so the parse tree
+ * can be dropped once it's lowered.
+ * <p>
+ * Nodes are ints numbered in pre-order, and everything about them is kept in parallel primitive arrays: the kind,
+ * which is the rule index of {@link com.zomdroid.agent.glsl.antlr.GLSLParser} or the token type of a terminal,
+ * the inclusive token span, the parent, and the end of the subtree. The text of a terminal is taken from the token
+ * list the tree was parsed from, by the token index its span starts at. The subtree of a node is the range
+ * {@code [node, end(node))}, so its first child is {@code node + 1} and the next sibling of a child is
+ * {@code end(child)}; walking children takes no allocation and no virtual call. Nodes also carry the type computed
+ * by {@link ExpressionTyper}, so every pass sees the same types.
+ * <p>
+ * Annotations of passes live in arrays indexed by node as well. Nodes of different subtrees never share a slot,
+ * so passes over disjoint subtrees, e.g. the functions visited by {@link GLSLCoreToESVisitor#visitInParallel},
+ * can annotate the same IR from several threads.
+ * <p>
+ * The parse tree of every node is only kept while the {@link TranslationTrace} is on, which renders visited nodes
+ * from their parse trees.
+ */
+public final class ShaderIR {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int size = 0;
+    // rule index of rule nodes, -2 - token type of terminals, so EOF (-1) is -1 and every terminal is negative
+    private short[] kinds = new short[INITIAL_CAPACITY];
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] stops = new int[INITIAL_CAPACITY];
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private ParseTree[] trees = TranslationTrace.LEVEL > TranslationTrace.OFF ? new ParseTree[INITIAL_CAPACITY] : null;
+
+    private final List<Token> tokens;
+    // terminals conjured by error recovery, which aren't part of the token list
+    private final Map<Integer, Token> conjured = new HashMap<>();
+
+    private GLSLType[] types;
+    private boolean[] typed;
+
+    private ShaderIR(List<Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Lowers a parse tree, its root becomes node {@code 0}.
+     *
+     * @param tokens all tokens the tree was parsed from, as returned by {@code BufferedTokenStream.getTokens()}
+     */
+    public static ShaderIR lower(ParserRuleContext tree, List<Token> tokens) {
+        ShaderIR ir = new ShaderIR(tokens);
+        ir.add(tree, -1);
+        ir.types = new GLSLType[ir.size];
+        ir.typed = new boolean[ir.size];
+        return ir;
+    }
+
+    private void add(ParseTree tree, int parent) {
+        int node = size++;
+        if (node == kinds.length) grow();
+        if (trees != null) trees[node] = tree;
+        parents[node] = parent;
+
+        if (tree instanceof TerminalNode terminal) {
+            Token token = terminal.getSymbol();
+            kinds[node] = (short) (-2 - token.getType());
+            starts[node] = token.getTokenIndex();
+            stops[node] = token.getTokenIndex();
+            ends[node] = node + 1;
+            if (token.getTokenIndex() < 0) conjured.put(node, token);
+            return;
+        }
+
+        ParserRuleContext ctx = (ParserRuleContext) tree;
+        kinds[node] = (short) ctx.getRuleIndex();
+        starts[node] = ctx.getStart().getTokenIndex();
+        // an empty rule stops before it starts
+        stops[node] = ctx.getStop() != null ? ctx.getStop().getTokenIndex() : starts[node] - 1;
+        for (int i = 0; i < ctx.getChildCount(); i++) {
+            add(ctx.getChild(i), node);
+        }
+        ends[node] = size;
+    }
+
+    private void grow() {
+        int capacity = kinds.length * 2;
+        kinds = Arrays.copyOf(kinds, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        stops = Arrays.copyOf(stops, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        if (trees != null) trees = Arrays.copyOf(trees, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isToken(int node) {
+        return kinds[node] < 0;
+    }
+
+    /**
+     * @return rule index of the node, {@code -1} for terminals
+     */
+    public int rule(int node) {
+        return Math.max(kinds[node], -1);
+    }
+
+    /**
+     * @return token type of a terminal, {@link Token#INVALID_TYPE} for rule nodes
+     */
+    public int tokenType(int node) {
+        return kinds[node] < 0 ? -2 - kinds[node] : Token.INVALID_TYPE;
+    }
+
+    /**
+     * @return index of the first token of the node in the token stream
+     */
+    public int start(int node) {
+        return starts[node];
+    }
+
+    /**
+     * @return index of the last token of the node in the token stream
+     */
+    public int stop(int node) {
+        return stops[node];
+    }
+
+    /**
+     * @return parent of the node, {@code -1} for the root
+     */
+    public int parent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * @return first node after the subtree of the node
+     */
+    public int end(int node) {
+        return ends[node];
+    }
+
+    /**
+     * @return first child of the node, {@code -1} if it has none
+     */
+    public int firstChild(int node) {
+        return node + 1 < ends[node] ? node + 1 : -1;
+    }
+
+    /**
+     * @return next sibling of the node, {@code -1} if it's the last child of its parent
+     */
+    public int nextSibling(int node) {
+        int parent = parents[node];
+        return parent != -1 && ends[node] < ends[parent] ? ends[node] : -1;
+    }
+
+    public int childCount(int node) {
+        int count = 0;
+        for (int child = firstChild(node); child != -1; child = nextSibling(child)) count++;
+        return count;
+    }
+
+    /**
+     * @return child at {@code index}, {@code -1} if the node has fewer children
+     */
+    public int child(int node, int index) {
+        int child = firstChild(node);
+        for (int i = 0; i < index && child != -1; i++) child = nextSibling(child);
+        return child;
+    }
+
+    /**
+     * @return first child of the given rule, {@code -1} if there is none
+     */
+    public int childOfRule(int node, int rule) {
+        for (int child = firstChild(node); child != -1; child = nextSibling(child)) {
+            if (kinds[child] == rule) return child;
+        }
+        return -1;
+    }
+
+    /**
+     * @return first terminal child of the given token type, {@code -1} if there is none
+     */
+    public int childOfToken(int node, int tokenType) {
+        for (int child = firstChild(node); child != -1; child = nextSibling(child)) {
+            if (kinds[child] == -2 - tokenType) return child;
+        }
+        return -1;
+    }
+
+    /**
+     * @return token of a terminal
+     */
+    public Token token(int node) {
+        return starts[node] >= 0 ? tokens.get(starts[node]) : conjured.get(node);
+    }
+
+    /**
+     * @return text of the terminals of the subtree, like {@link ParseTree#getText()}
+     */
+    public String text(int node) {
+        if (kinds[node] < 0) return token(node).getText();
+
+        StringBuilder sb = null;
+        String single = "";
+        for (int i = node + 1; i < ends[node]; i++) {
+            if (kinds[i] >= 0) continue;
+            String text = token(i).getText();
+            if (sb != null) {
+                sb.append(text);
+            } else if (single.isEmpty()) {
+                single = text;
+            } else {
+                sb = new StringBuilder(single).append(text);
+            }
+        }
+        return sb != null ? sb.toString() : single;
+    }
+
+    /**
+     * @return parse tree the node was lowered from, {@code null} unless the {@link TranslationTrace} is on
+     */
+    public ParseTree tree(int node) {
+        return trees != null ? trees[node] : null;
+    }
+
+    /**
+     * @return whether {@link #setType} was called for the node
+     */
+    public boolean isTyped(int node) {
+        return typed[node];
+    }
+
+    /**
+     * @return type of an expression node, {@code null} if it's unknown or wasn't computed
+     */
+    public GLSLType type(int node) {
+        return types[node];
+    }
+
+    public void setType(int node, GLSLType type) {
+        types[node] = type;
+        typed[node] = true;
+    }
+}
@@ -0,0 +1,292 @@
+package com.zomdroid.agent.glsl;
+
+import com.zomdroid.agent.glsl.antlr.GLSLLexer;
+import com.zomdroid.agent.glsl.antlr.GLSLParser;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.Vocabulary;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shrinks translated shader source before it's handed to gl4es, which re-parses every shader and whose own
+ * conversion cost grows with the source length.
+ * <p>
+ * The output is re-lexed and written back token by token: comments are dropped, whitespace is collapsed to whatever
+ * keeps neighbouring tokens apart, {@code #line} and {@code #pragma optimize/debug} lines and {@code #define}s
+ * that nothing refers to are removed, and local variables and parameters can optionally be renamed to short names.
+ * Preprocessor directives are copied as they are, one per line, and so is code inside conditional blocks,
+ * which the lexer returns as a single {@code PROGRAM_TEXT} token. Names of globals, i.e. uniforms, attributes,
+ * varyings, functions and struct types, are never changed, so binding by name keeps working.
+ * <p>
+ * Instances are not thread safe, use one per thread.
+ */
+public class ShaderMinifier {
+    private static final Set<String> KEYWORDS = keywords();
+
+    private final GLSLLexer lexer = new GLSLCompatLexer(CharStreams.fromString(""));
+    private boolean lexerFailed;
+
+    public ShaderMinifier() {
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+                                    String msg, RecognitionException e) {
+                lexerFailed = true;
+            }
+        });
+    }
+
+    /**
+     * Collects names that are only ever declared as local variables or function parameters, so they can be
+     * passed to {@link #minify} to be shortened.
+     *
+     * @param tokens all tokens of the source, as returned by {@code BufferedTokenStream.getTokens()}
+     */
+    public static Set<String> collectLocalNames(ShaderIR ir, List<Token> tokens) {
+        Set<String> locals = new HashSet<>();
+        Set<String> globals = new HashSet<>();
+        for (int declaration = ir.firstChild(0); declaration != -1; declaration = ir.nextSibling(declaration)) {
+            if (ir.rule(declaration) != GLSLParser.RULE_external_declaration) continue; // EOF
+
+            int function = ir.childOfRule(declaration, GLSLParser.RULE_function_definition);
+            if (function != -1) {
+                int prototype = ir.childOfRule(function, GLSLParser.RULE_function_prototype);
+                globals.add(ir.text(ir.childOfToken(prototype, GLSLLexer.IDENTIFIER)));
+                collectNames(ir, function, locals, globals, true);
+            } else {
+                collectNames(ir, declaration, locals, globals, false);
+            }
+        }
+        // identifiers used by preprocessor directives and code hidden in conditional blocks can't be tracked
+        List<String> directiveNames = new ArrayList<>();
+        for (Token token : tokens) {
+            if (token.getChannel() == GLSLLexer.DIRECTIVES) DeadCodeEliminator.addIdentifiers(token.getText(), directiveNames);
+        }
+        globals.addAll(directiveNames);
+
+        locals.removeAll(globals);
+        locals.removeIf(name -> name.startsWith("gl_") || GLSLCoreToESVisitor.SymbolTable.getBuiltinOverloads(name) != null);
+        return locals;
+    }
+
+    /**
+     * Walks a top level declaration. Inside function definitions, declared variable and parameter names are locals,
+     * everything else is a global. Parameter names of prototypes are neither, as renaming them is always safe.
+     * Every identifier of a struct specifier is a global.
+     */
+    private static void collectNames(ShaderIR ir, int declaration, Set<String> locals, Set<String> globals, boolean inFunction) {
+        int structEnd = -1;
+        for (int node = declaration; node < ir.end(declaration); node++) {
+            if (ir.rule(node) == GLSLParser.RULE_struct_specifier && node >= structEnd) structEnd = ir.end(node);
+            if (ir.tokenType(node) != GLSLLexer.IDENTIFIER) continue;
+
+            if (node < structEnd) {
+                globals.add(ir.text(node));
+                continue;
+            }
+            int parent = ir.rule(ir.parent(node));
+            boolean declaresLocal = parent == GLSLParser.RULE_typeless_declaration
+                    || parent == GLSLParser.RULE_parameter_declarator
+                    || parent == GLSLParser.RULE_condition;
+            if (inFunction) {
+                if (declaresLocal) locals.add(ir.text(node));
+            } else if (parent != GLSLParser.RULE_parameter_declarator) {
+                globals.add(ir.text(node));
+            }
+        }
+    }
+
+    /**
+     * @param renamableLocals names to shorten, as returned by {@link #collectLocalNames}, or an empty set to keep
+     *                        all names
+     * @return minified source, or {@code code} itself if it can't be lexed cleanly
+     */
+    public String minify(String code, Set<String> renamableLocals) {
+        lexerFailed = false;
+        lexer.setInputStream(CharStreams.fromString(code));
+        List<? extends Token> all = lexer.getAllTokens();
+        if (lexerFailed) return code;
+
+        List<Token> tokens = new ArrayList<>(all.size());
+        List<String> directiveNames = new ArrayList<>();
+        Map<String, Integer> identifierCounts = new HashMap<>();
+        for (Token token : all) {
+            int channel = token.getChannel();
+            if (channel == GLSLLexer.HIDDEN || channel == GLSLLexer.COMMENTS) continue;
+            if (channel == GLSLLexer.DIRECTIVES) {
+                DeadCodeEliminator.addIdentifiers(token.getText(), directiveNames);
+            } else if (token.getType() == GLSLLexer.IDENTIFIER) {
+                identifierCounts.merge(token.getText(), 1, Integer::sum);
+            }
+            tokens.add(token);
+        }
+
+        Map<String, String> renames = renames(renamableLocals, identifierCounts, directiveNames);
+        Set<String> usedNames = new HashSet<>(identifierCounts.keySet());
+        usedNames.addAll(directiveNames);
+
+        StringBuilder sb = new StringBuilder(code.length());
+        int i = 0;
+        while (i < tokens.size()) {
+            Token token = tokens.get(i);
+            if (token.getType() == GLSLLexer.NUMBER_SIGN) {
+                int end = directiveEnd(tokens, i);
+                if (!isRemovableDirective(tokens, i, end, usedNames)) {
+                    if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '\n') sb.append('\n');
+                    sb.append(code, token.getStartIndex(), tokens.get(end - 1).getStopIndex() + 1).append('\n');
+                }
+                i = end;
+                continue;
+            }
+
+            String text = token.getText();
+            if (token.getType() == GLSLLexer.IDENTIFIER && (i == 0 || tokens.get(i - 1).getType() != GLSLLexer.DOT)) {
+                text = renames.getOrDefault(text, text);
+            }
+            if (sb.length() > 0 && !text.isEmpty() && needsSpace(sb.charAt(sb.length() - 1), text.charAt(0))
+                    && tokens.get(i - 1).getStopIndex() + 1 != token.getStartIndex()) {
+                sb.append(' ');
+            }
+            sb.append(text);
+            i++;
+        }
+        if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '\n') sb.append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * @return index of the first token after the directive starting at {@code start}
+     */
+    private static int directiveEnd(List<Token> tokens, int start) {
+        int end = start + 1;
+        while (end < tokens.size()) {
+            Token token = tokens.get(end);
+            if (token.getChannel() != GLSLLexer.DIRECTIVES || token.getType() == GLSLLexer.NUMBER_SIGN
+                    || token.getType() == GLSLLexer.PROGRAM_TEXT) break;
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isRemovableDirective(List<Token> tokens, int start, int end, Set<String> usedNames) {
+        if (end - start < 2) return false;
+        switch (tokens.get(start + 1).getType()) {
+            case GLSLLexer.LINE_DIRECTIVE:
+                return true;
+            case GLSLLexer.PRAGMA_DIRECTIVE:
+                if (end - start < 3) return false;
+                int pragma = tokens.get(start + 2).getType();
+                return pragma == GLSLLexer.OPTIMIZE || pragma == GLSLLexer.DEBUG;
+            case GLSLLexer.DEFINE_DIRECTIVE:
+                if (end - start < 3 || tokens.get(start + 2).getType() != GLSLLexer.MACRO_NAME) return false;
+                List<String> name = new ArrayList<>(1);
+                DeadCodeEliminator.addIdentifiers(tokens.get(start + 2).getText(), name);
+                return !name.isEmpty() && !isReferenced(name.get(0), tokens, start + 2, usedNames);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return whether {@code name} is used anywhere except for the token at {@code definition}
+     */
+    private static boolean isReferenced(String name, List<Token> tokens, int definition, Set<String> usedNames) {
+        if (!usedNames.contains(name)) return false;
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            if (i == definition) continue;
+            Token token = tokens.get(i);
+            if (token.getChannel() == GLSLLexer.DIRECTIVES) {
+                names.clear();
+                DeadCodeEliminator.addIdentifiers(token.getText(), names);
+                if (names.contains(name)) return true;
+            } else if (token.getType() == GLSLLexer.IDENTIFIER && token.getText().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Assigns the shortest free names to the most used locals.
+     */
+    private static Map<String, String> renames(Set<String> renamableLocals, Map<String, Integer> identifierCounts,
+                                               List<String> directiveNames) {
+        if (renamableLocals.isEmpty()) return Map.of();
+
+        List<String> locals = new ArrayList<>();
+        for (String name : identifierCounts.keySet()) {
+            if (renamableLocals.contains(name)) locals.add(name);
+        }
+        locals.removeAll(directiveNames);
+        locals.sort((a, b) -> {
+            int byCount = Integer.compare(identifierCounts.get(b), identifierCounts.get(a));
+            return byCount != 0 ? byCount : a.compareTo(b);
+        });
+
+        Map<String, String> renames = new HashMap<>();
+        int next = 0;
+        for (String local : locals) {
+            String shortName;
+            do {
+                shortName = shortName(next++);
+            } while (identifierCounts.containsKey(shortName) || directiveNames.contains(shortName)
+                    || KEYWORDS.contains(shortName) || GLSLCoreToESVisitor.SymbolTable.getBuiltinOverloads(shortName) != null);
+            if (shortName.length() >= local.length()) continue;
+            renames.put(local, shortName);
+        }
+        return renames;
+    }
+
+    /**
+     * @return the {@code index}th name of the sequence {@code a, b, ..., Z, aa, ab, ...}
+     */
+    private static String shortName(int index) {
+        final String letters = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+        StringBuilder sb = new StringBuilder();
+        do {
+            sb.append(letters.charAt(index % letters.length()));
+            index = index / letters.length() - 1;
+        } while (index >= 0);
+        return sb.reverse().toString();
+    }
+
+    /**
+     * @return whether two characters would merge into a different token without a space between them
+     */
+    private static boolean needsSpace(char before, char after) {
+        if (isWordChar(before)) return isWordChar(after);
+        if (before == after) return "+-&|^<>=/".indexOf(before) != -1;
+        return (after == '=' && "+-*/%<>=!&|^".indexOf(before) != -1)
+                || (before == '/' && after == '*') || (before == '*' && after == '/');
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+
+    private static Set<String> keywords() {
+        Set<String> keywords = new HashSet<>();
+        Vocabulary vocabulary = GLSLLexer.VOCABULARY;
+        for (int type = 0; type <= vocabulary.getMaxTokenType(); type++) {
+            String literal = vocabulary.getLiteralName(type);
+            if (literal != null) keywords.add(literal.substring(1, literal.length() - 1));
+        }
+        // reserved for future use in GLSL ES, so not known to the lexer
+        keywords.addAll(List.of("asm", "class", "union", "enum", "typedef", "template", "this", "packed", "goto",
+                "inline", "noinline", "volatile", "public", "static", "extern", "external", "interface", "long",
+                "short", "double", "half", "fixed", "unsigned", "superp", "input", "output", "sizeof", "cast",
+                "namespace", "using"));
+        return keywords;
+    }
+}
@@ -0,0 +1,184 @@
+package com.zomdroid.agent.glsl;
+
+import org.antlr.v4.runtime.Token;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects edits of a token stream and applies them to the original source in a single pass.
+ * <p>
+ * Every edit replaces the text of an inclusive range of tokens, so removing a whole function definition
+ * is a single edit. Edits are kept in primitive arrays and are expected to arrive in source order,
+ * which is what a parse tree visitor produces; out of order edits are sorted before applying.
+ * Of overlapping edits only the one starting first is applied, or the longest of those starting at the same token,
+ * so an edit of a whole expression supersedes the edits of its parts.
+ * <p>
+ * When applying, everything between edits is copied from the original source in bulk, so unchanged tokens
+ * cost nothing. Text the lexer skipped without producing a token (e.g. whitespace inside preprocessor directives)
+ * is kept even inside replaced ranges, matching a replacement of each token in the range on its own.
+ */
+public class TokenRewriter {
+    private int[] startTokens = new int[16];
+    private int[] stopTokens = new int[16];
+    private String[] texts = new String[16];
+    private int size = 0;
+    private boolean sorted = true;
+
+    public void replace(int tokenIndex, String text) {
+        replace(tokenIndex, tokenIndex, text);
+    }
+
+    public void replace(int startTokenIndex, int stopTokenIndex, String text) {
+        if (stopTokenIndex < startTokenIndex)
+            throw new IllegalArgumentException("Invalid token range " + startTokenIndex + ".." + stopTokenIndex);
+
+        if (size == startTokens.length) {
+            int capacity = size * 2;
+            startTokens = Arrays.copyOf(startTokens, capacity);
+            stopTokens = Arrays.copyOf(stopTokens, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+        }
+        if (size > 0 && (startTokenIndex < startTokens[size - 1]
+                || (startTokenIndex == startTokens[size - 1] && stopTokenIndex > stopTokens[size - 1]))) {
+            sorted = false;
+        }
+
+        startTokens[size] = startTokenIndex;
+        stopTokens[size] = stopTokenIndex;
+        texts[size] = text;
+        size++;
+    }
+
+    public void delete(int startTokenIndex, int stopTokenIndex) {
+        replace(startTokenIndex, stopTokenIndex, "");
+    }
+
+    /**
+     * Merges edits collected separately for disjoint token ranges, e.g. by visitors of different functions,
+     * inserting each part at its position among the edits of this rewriter, so edits stay in source order
+     * without sorting.
+     *
+     * @param positions for each part, number of edits of this rewriter preceding it, in increasing order
+     */
+    public void insertAll(int[] positions, List<TokenRewriter> parts) {
+        int total = size;
+        for (TokenRewriter part : parts) {
+            total += part.size;
+        }
+        int[] mergedStarts = new int[Math.max(16, total)];
+        int[] mergedStops = new int[mergedStarts.length];
+        String[] mergedTexts = new String[mergedStarts.length];
+
+        int from = 0;
+        int to = 0;
+        for (int p = 0; p <= parts.size(); p++) {
+            int end = p < parts.size() ? positions[p] : size;
+            System.arraycopy(startTokens, from, mergedStarts, to, end - from);
+            System.arraycopy(stopTokens, from, mergedStops, to, end - from);
+            System.arraycopy(texts, from, mergedTexts, to, end - from);
+            to += end - from;
+            from = end;
+
+            if (p < parts.size()) {
+                TokenRewriter part = parts.get(p);
+                System.arraycopy(part.startTokens, 0, mergedStarts, to, part.size);
+                System.arraycopy(part.stopTokens, 0, mergedStops, to, part.size);
+                System.arraycopy(part.texts, 0, mergedTexts, to, part.size);
+                to += part.size;
+            }
+        }
+
+        startTokens = mergedStarts;
+        stopTokens = mergedStops;
+        texts = mergedTexts;
+        size = total;
+
+        // parts which aren't disjoint, or weren't in order themselves, are still applied correctly
+        for (int i = 1; i < size && sorted; i++) {
+            sorted = startTokens[i] > startTokens[i - 1]
+                    || (startTokens[i] == startTokens[i - 1] && stopTokens[i] <= stopTokens[i - 1]);
+        }
+    }
+
+    /**
+     * @return number of collected edits
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param code   source the tokens were lexed from
+     * @param tokens all tokens of the source, as returned by {@code BufferedTokenStream.getTokens()}
+     * @return source with all edits applied
+     */
+    public String apply(String code, List<Token> tokens) {
+        if (!sorted) sort();
+
+        StringBuilder result = new StringBuilder(code.length() + size * 2);
+        int lastPos = 0;
+        int lastStopToken = -1;
+
+        for (int i = 0; i < size; i++) {
+            int startToken = startTokens[i];
+            int stopToken = stopTokens[i];
+            if (startToken <= lastStopToken) continue; // overlaps an applied edit
+
+            int start = tokens.get(startToken).getStartIndex();
+            result.append(code, lastPos, start);
+            result.append(texts[i]);
+
+            // keep text between tokens of the range which doesn't belong to any token
+            int pos = tokens.get(startToken).getStopIndex() + 1;
+            for (int t = startToken + 1; t <= stopToken; t++) {
+                Token token = tokens.get(t);
+                if (pos < token.getStartIndex()) {
+                    result.append(code, pos, token.getStartIndex());
+                }
+                pos = token.getStopIndex() + 1;
+            }
+
+            lastPos = pos;
+            lastStopToken = stopToken;
+        }
+
+        result.append(code, lastPos, code.length());
+        return result.toString();
+    }
+
+    private void sort() {
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) startTokens[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        // edits starting at the same token, longest first; such runs are short, so an insertion sort will do
+        for (int i = 1; i < size; i++) {
+            long edit = order[i];
+            int start = startTokens[(int) edit];
+            int stop = stopTokens[(int) edit];
+            int j = i - 1;
+            while (j >= 0 && startTokens[(int) order[j]] == start && stopTokens[(int) order[j]] < stop) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = edit;
+        }
+
+        int[] sortedStarts = new int[size];
+        int[] sortedStops = new int[size];
+        String[] sortedTexts = new String[size];
+        for (int i = 0; i < size; i++) {
+            int from = (int) order[i];
+            sortedStarts[i] = startTokens[from];
+            sortedStops[i] = stopTokens[from];
+            sortedTexts[i] = texts[from];
+        }
+        startTokens = sortedStarts;
+        stopTokens = sortedStops;
+        texts = sortedTexts;
+        sorted = true;
+    }
+}
@@ -0,0 +1,121 @@
+package com.zomdroid.agent.glsl;
+
+import com.zomdroid.agent.AgentOptions;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.Arrays;
+
+/**
+ * Trace of the decisions and tree walks of the translator, for diagnosing translation bugs.
+ * <p>
+ * The level is a {@code static final} read once from the {@code traceTranslation} agent option
+ * ({@code decisions} or {@code visits}), so with tracing off, which is the default, every guarded call site is
+ * removed by the JIT. Call sites must check {@link #LEVEL} before building any message, and visits are recorded as
+ * events holding the visited node, whose text is only produced when the trace is dumped.
+ * <p>
+ * Events go to a per-thread ring buffer of {@code traceBufferSize} events (4096 by default) that is cleared at the
+ * start of every translation, so a dump holds the end of the trace of the last shader translated by that thread.
+ * With {@code traceShader=name}, only shaders whose name contains {@code name} are dumped.
+ */
+public final class TranslationTrace {
+    public static final int OFF = 0;
+    /** Edits and type decisions taken by the translator. */
+    public static final int DECISIONS = 1;
+    /** Decisions, plus every visited node. */
+    public static final int VISITS = 2;
+
+    public static final int LEVEL = parseLevel(AgentOptions.get("traceTranslation", null));
+
+    private static final int CAPACITY = Math.max(16, AgentOptions.getInt("traceBufferSize", 4096));
+    private static final int MAX_NODE_TEXT = 120;
+    private static final String SHADER_FILTER = AgentOptions.get("traceShader", null);
+
+    /**
+     * @param node   visited node, {@code null} for decisions
+     * @param detail additional information, may be {@code null}
+     */
+    private record Event(int depth, String label, ParseTree node, String detail) {
+        String render() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("\t".repeat(depth)).append(label);
+            if (node != null) {
+                String text = node.getText();
+                if (text.length() > MAX_NODE_TEXT) text = text.substring(0, MAX_NODE_TEXT) + "...";
+                sb.append(' ').append(text);
+            }
+            if (detail != null) sb.append(' ').append(detail);
+            return sb.toString();
+        }
+    }
+
+    private static final class Ring {
+        final Event[] events = new Event[CAPACITY];
+        long count;
+        int lastDepth;
+    }
+
+    private static final ThreadLocal<Ring> rings = ThreadLocal.withInitial(Ring::new);
+
+    private TranslationTrace() {
+    }
+
+    private static int parseLevel(String option) {
+        if (option == null) return OFF;
+        return switch (option) {
+            case "visits", "true" -> VISITS;
+            case "decisions" -> DECISIONS;
+            case "off", "false" -> OFF;
+            default -> {
+                System.out.println("Unknown translation trace level " + option + ", tracing disabled");
+                yield OFF;
+            }
+        };
+    }
+
+    /**
+     * Clears the current thread's trace, called at the start of every translation.
+     */
+    public static void begin() {
+        Ring ring = rings.get();
+        Arrays.fill(ring.events, null);
+        ring.count = 0;
+        ring.lastDepth = 0;
+    }
+
+    public static void record(int depth, String label, ParseTree node, String detail) {
+        Ring ring = rings.get();
+        add(ring, new Event(depth, label, node, detail));
+        ring.lastDepth = depth;
+    }
+
+    /**
+     * Records a decision indented under the last event recorded with a depth, for code that doesn't track the depth
+     * of the walk.
+     */
+    public static void record(String label) {
+        Ring ring = rings.get();
+        add(ring, new Event(ring.lastDepth + 1, label, null, null));
+    }
+
+    private static void add(Ring ring, Event event) {
+        ring.events[(int) (ring.count++ % CAPACITY)] = event;
+    }
+
+    /**
+     * Prints the current thread's trace, unless {@code traceShader} excludes this shader.
+     */
+    public static void dump(String shaderName) {
+        if (SHADER_FILTER != null && !shaderName.contains(SHADER_FILTER)) return;
+
+        Ring ring = rings.get();
+        long first = Math.max(0, ring.count - CAPACITY);
+        StringBuilder sb = new StringBuilder();
+        sb.append("Translation trace of ").append(shaderName).append(", ").append(ring.count).append(" events");
+        if (first > 0) sb.append(", first ").append(first).append(" dropped");
+        sb.append(':');
+        for (long i = first; i < ring.count; i++) {
+            sb.append('\n').append(ring.events[(int) (i % CAPACITY)].render());
+        }
+        System.out.println(sb);
+    }
+}
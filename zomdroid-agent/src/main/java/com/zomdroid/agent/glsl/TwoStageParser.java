@@ -0,0 +1,52 @@
+package com.zomdroid.agent.glsl;
+
+import com.zomdroid.agent.glsl.antlr.GLSLParser;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+/**
+ * Parses a translation unit with the two-stage strategy recommended for ANTLR 4 grammars.
+ * <p>
+ * The first stage uses {@link PredictionMode#SLL} with a {@link BailErrorStrategy}, which is considerably faster
+ * than full LL prediction and gives the same result for every input SLL can handle. Only if that stage reports
+ * a syntax error, which may be either a real error or an SLL false negative, the input is parsed again with full
+ * {@link PredictionMode#LL} prediction and the default error recovery.
+ */
+public class TwoStageParser {
+    public enum PredictionPath {
+        SLL, LL
+    }
+
+    /**
+     * @param sllNanos time spent in the SLL stage
+     * @param llNanos  time spent in the LL stage, {@code 0} if it wasn't needed
+     */
+    public record Result(GLSLParser.Translation_unitContext tree, PredictionPath path, long sllNanos, long llNanos) {
+    }
+
+    public static Result parse(GLSLParser parser) {
+        TokenStream tokens = parser.getTokenStream();
+
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.setErrorHandler(new BailErrorStrategy());
+        parser.removeErrorListeners(); // errors of the first stage are not necessarily real
+        long sllStart = System.nanoTime();
+        try {
+            GLSLParser.Translation_unitContext tree = parser.translation_unit();
+            return new Result(tree, PredictionPath.SLL, System.nanoTime() - sllStart, 0);
+        } catch (ParseCancellationException e) {
+            long llStart = System.nanoTime();
+            tokens.seek(0);
+            parser.reset();
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+            GLSLParser.Translation_unitContext tree = parser.translation_unit();
+            return new Result(tree, PredictionPath.LL, llStart - sllStart, System.nanoTime() - llStart);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.zomdroid.agent.shader;
+
+import com.zomdroid.agent.AgentOptions;
+import com.zomdroid.agent.decorators.ShaderUnit;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Translates shaders in the background as soon as the game starts loading them.
+ * <p>
+ * {@link ShaderUnit.loadShaderFile} submits a shader file when the game enters {@code loadShaderFile}, before the
+ * game has read it. A worker reconstructs its source with {@link ShaderSourceLoader} and translates it while the
+ * game is still reading and preprocessing the file, and the other stage of the same program, i.e. the {@code .frag}
+ * next to a {@code .vert} and vice versa, is submitted along with it, so the two overlap. {@link ShaderUnit.preProcessShaderFile}
+ * then only joins on the result; if the game produced a different source than the reconstructed one,
+ * the result is discarded and the shader is translated synchronously as before.
+ * <p>
+ * The other stage is only submitted the first time either stage of a program is seen, so a {@code .frag} loaded after
+ * its {@code .vert} was joined doesn't translate the {@code .vert} again. Translations nobody joins, e.g. of a stage
+ * the game never loads, are dropped {@value #UNJOINED_EXPIRY_SECONDS} seconds after they were submitted.
+ * <p>
+ * Enabled with the {@code asyncShaders} agent option. {@code asyncShaderThreads} sets the number of workers and
+ * {@code asyncShaderQueue} bounds the number of waiting shaders; submissions over the bound are dropped and
+ * translated synchronously. Time spent blocked in the join is reported by {@link ShaderMetrics}.
+ */
+public class AsyncShaderTranslator {
+    private static final int DEFAULT_QUEUE_CAPACITY = 64;
+    private static final long UNJOINED_EXPIRY_SECONDS = 30;
+
+    private record Translation(String source, String code) {
+    }
+
+    private record Pending(CompletableFuture<Translation> future, long submitNanos) {
+    }
+
+    private static final Map<Path, Pending> pending = new ConcurrentHashMap<>();
+    // every shader file submitted so far, directly or as the other stage of its program
+    private static final Set<Path> seen = ConcurrentHashMap.newKeySet();
+    private static volatile ThreadPoolExecutor executor;
+
+    public static void startFromOptions() {
+        if (!AgentOptions.getBoolean("asyncShaders", false)) return;
+
+        int defaultThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        int threads = Math.max(1, AgentOptions.getInt("asyncShaderThreads", defaultThreads));
+        int queueCapacity = Math.max(1, AgentOptions.getInt("asyncShaderQueue", DEFAULT_QUEUE_CAPACITY));
+        start(threads, queueCapacity);
+    }
+
+    public static void start(int threads, int queueCapacity) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "zomdroid-shader-translator-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+        System.out.println("Translating shaders asynchronously on up to " + threads + " threads");
+    }
+
+    public static boolean isEnabled() {
+        return executor != null;
+    }
+
+    /**
+     * Starts translating a shader file and the other stage of its program in the background,
+     * unless they are already in flight.
+     *
+     * @return future translated code of {@code shaderPath}, or {@code null} if it wasn't submitted
+     */
+    public static CompletableFuture<String> submit(String shaderPath) {
+        if (executor == null) return null;
+
+        Path shaderFile = IncludeGraph.normalize(Path.of(shaderPath));
+        Path sibling = siblingOf(shaderFile);
+        if (sibling == null) return null; // not a program unit
+
+        dropUnjoined();
+        seen.add(shaderFile);
+        boolean isNewProgram = seen.add(sibling);
+        CompletableFuture<Translation> translation = submit(shaderFile);
+        if (isNewProgram && Files.isRegularFile(sibling)) submit(sibling);
+        return translation != null ? translation.thenApply(Translation::code) : null;
+    }
+
+    private static CompletableFuture<Translation> submit(Path shaderFile) {
+        Pending existing = pending.get(shaderFile);
+        if (existing != null) return existing.future();
+
+        CompletableFuture<Translation> translation;
+        try {
+            translation = CompletableFuture.supplyAsync(() -> translate(shaderFile), executor);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+        existing = pending.putIfAbsent(shaderFile, new Pending(translation, System.nanoTime()));
+        return existing != null ? existing.future() : translation;
+    }
+
+    /**
+     * Drops finished translations submitted too long ago to still be joined, so their sources don't stay in memory.
+     */
+    private static void dropUnjoined() {
+        long now = System.nanoTime();
+        pending.values().removeIf(entry -> entry.future().isDone()
+                && now - entry.submitNanos() > TimeUnit.SECONDS.toNanos(UNJOINED_EXPIRY_SECONDS));
+    }
+
+    private static Translation translate(Path shaderFile) {
+        String source;
+        try {
+            source = new ShaderSourceLoader().load(shaderFile);
+        } catch (IOException e) {
+            System.out.println("Failed to load shader " + shaderFile + " for asynchronous translation: " + e);
+            return null;
+        }
+        String precompiled = ShaderPrecompiler.lookup(source);
+        if (precompiled != null) return new Translation(source, precompiled);
+        return new Translation(source, ShaderUnit.preProcessShaderFile.translateCached(shaderFile.toString(), source));
+    }
+
+    /**
+     * Waits for the background translation of {@code shaderPath}, if one was submitted.
+     *
+     * @param code source produced by the game
+     * @return translated code, or {@code null} if there is no background translation of the same source
+     */
+    public static String join(String shaderPath, String code) {
+        if (executor == null) return null;
+
+        Path shaderFile = IncludeGraph.normalize(Path.of(shaderPath));
+        Pending entry = pending.remove(shaderFile);
+        if (entry == null) return null;
+        CompletableFuture<Translation> future = entry.future();
+
+        long start = System.nanoTime();
+        boolean blocked = !future.isDone();
+        Translation translation;
+        try {
+            translation = future.join();
+        } catch (RuntimeException e) {
+            System.out.println("Asynchronous translation of " + shaderPath + " failed: " + e);
+            translation = null;
+        }
+        boolean hit = translation != null && translation.source().equals(code);
+        ShaderMetrics.recordAsyncJoin(blocked ? System.nanoTime() - start : 0, hit);
+        return hit ? translation.code() : null;
+    }
+
+    private static Path siblingOf(Path shaderFile) {
+        String name = shaderFile.getFileName().toString();
+        if (name.endsWith(".vert")) return shaderFile.resolveSibling(name.substring(0, name.length() - 5) + ".frag");
+        if (name.endsWith(".frag")) return shaderFile.resolveSibling(name.substring(0, name.length() - 5) + ".vert");
+        return null;
+    }
+}
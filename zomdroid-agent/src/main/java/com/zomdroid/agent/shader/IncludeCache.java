@@ -0,0 +1,118 @@
+package com.zomdroid.agent.shader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Session-wide cache of preprocessed include units, i.e. {@code X.glsl} files inlined by
+ * {@link com.zomdroid.agent.decorators.ShaderUnit.processIncludeLine}, with their {@code #version} directive removed.
+ * <p>
+ * Shared includes are used by most of the game's shaders, so without the cache each of them is read and preprocessed
+ * by the game once per includer. An entry remembers modification time and size of its file and of every file
+ * inlined into it by nested includes, and is dropped as soon as any of them changes.
+ * <p>
+ * Loading an include is bracketed by {@link #beginLoad()} and {@link #endLoad(String, String)}; nested includes loaded
+ * or taken from the cache in between are recorded as dependencies of the enclosing one.
+ */
+public class IncludeCache {
+    private record Stamp(String path, long modified, long size) {
+        boolean isCurrent() {
+            Stamp current = stampOf(path);
+            return current != null && current.modified == modified && current.size == size;
+        }
+    }
+
+    private record Entry(String code, List<Stamp> stamps) {
+    }
+
+    /**
+     * Dependencies of an include currently being loaded by the game.
+     */
+    private static class Load {
+        final List<Stamp> stamps = new ArrayList<>();
+        boolean cacheable = true;
+    }
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Deque<Load>> loads = ThreadLocal.withInitial(ArrayDeque::new);
+
+    /**
+     * @return preprocessed code of the include unit, or {@code null} if it isn't cached or any file it was built from changed
+     */
+    public static String get(String path) {
+        Entry entry = entries.get(path);
+        if (entry == null) return null;
+
+        for (Stamp stamp : entry.stamps()) {
+            if (!stamp.isCurrent()) {
+                entries.remove(path, entry);
+                return null;
+            }
+        }
+
+        Load parent = loads.get().peek();
+        if (parent != null) parent.stamps.addAll(entry.stamps());
+        return entry.code();
+    }
+
+    public static void beginLoad() {
+        loads.get().push(new Load());
+    }
+
+    /**
+     * @param code preprocessed code of the include unit, {@code null} if loading it failed
+     */
+    public static void endLoad(String path, String code) {
+        Deque<Load> stack = loads.get();
+        Load load = stack.pop();
+
+        Stamp stamp = stampOf(path);
+        if (stamp == null || code == null) {
+            load.cacheable = false;
+        } else {
+            load.stamps.add(0, stamp);
+        }
+
+        if (load.cacheable) {
+            entries.put(path, new Entry(code, List.copyOf(load.stamps)));
+        }
+
+        Load parent = stack.peek();
+        if (parent != null) {
+            parent.stamps.addAll(load.stamps);
+            parent.cacheable &= load.cacheable;
+        }
+    }
+
+    /**
+     * Drops every entry built from {@code file}, without waiting for the next {@link #get(String)} to notice the change.
+     */
+    public static void invalidate(Path file) {
+        file = IncludeGraph.normalize(file);
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            for (Stamp stamp : entry.getValue().stamps()) {
+                if (IncludeGraph.normalize(Path.of(stamp.path())).equals(file)) {
+                    entries.remove(entry.getKey(), entry.getValue());
+                    break;
+                }
+            }
+        }
+    }
+
+    private static Stamp stampOf(String path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(Path.of(path), BasicFileAttributes.class);
+            return new Stamp(path, attributes.lastModifiedTime().toMillis(), attributes.size());
+        } catch (IOException | RuntimeException e) {
+            return null; // not a plain file we can watch, so it's not cached
+        }
+    }
+}
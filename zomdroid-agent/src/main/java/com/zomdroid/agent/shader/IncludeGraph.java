@@ -0,0 +1,78 @@
+package com.zomdroid.agent.shader;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which shader files include which, as seen by {@link ShaderSourceLoader} and by the game's
+ * {@code ShaderUnit.processIncludeLine}. Used by {@link ShaderHotReload} to find every shader affected by
+ * a changed file. All paths are absolute and normalized.
+ */
+public class IncludeGraph {
+    private static final Map<Path, Set<Path>> includes = new HashMap<>();
+    private static final Map<Path, Set<Path>> includers = new HashMap<>();
+
+    /**
+     * Records an {@code #include X} processed by the game, which inlines both {@code X.h} and {@code X.glsl}.
+     *
+     * @param unitPath path of the included unit without extension, as listed by the game
+     */
+    public static void recordGameInclude(String shaderPath, String unitPath) {
+        Path includer = normalize(Path.of(shaderPath));
+        synchronized (IncludeGraph.class) {
+            link(includer, normalize(Path.of(unitPath + ".h")));
+            link(includer, normalize(Path.of(unitPath + ".glsl")));
+        }
+    }
+
+    /**
+     * Replaces everything recorded as included by {@code includer}, e.g. after the file was read again.
+     */
+    public static synchronized void setIncludes(Path includer, Collection<Path> included) {
+        includer = normalize(includer);
+        Set<Path> previous = includes.remove(includer);
+        if (previous != null) {
+            for (Path path : previous) {
+                Set<Path> pathIncluders = includers.get(path);
+                if (pathIncluders == null) continue;
+                pathIncluders.remove(includer);
+                if (pathIncluders.isEmpty()) includers.remove(path);
+            }
+        }
+        for (Path path : included) {
+            link(includer, normalize(path));
+        }
+    }
+
+    private static void link(Path includer, Path included) {
+        includes.computeIfAbsent(includer, k -> new HashSet<>()).add(included);
+        includers.computeIfAbsent(included, k -> new HashSet<>()).add(includer);
+    }
+
+    /**
+     * @return {@code changed} followed by every file including it directly or transitively
+     */
+    public static synchronized Set<Path> affectedBy(Path changed) {
+        Set<Path> affected = new LinkedHashSet<>();
+        Deque<Path> queue = new ArrayDeque<>();
+        queue.add(normalize(changed));
+        while (!queue.isEmpty()) {
+            Path path = queue.poll();
+            if (!affected.add(path)) continue;
+            Set<Path> pathIncluders = includers.get(path);
+            if (pathIncluders != null) queue.addAll(pathIncluders);
+        }
+        return affected;
+    }
+
+    static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,179 @@
+package com.zomdroid.agent.shader;
+
+import com.zomdroid.agent.AgentOptions;
+import com.zomdroid.agent.glsl.GLSLTranslator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent content-addressed cache of shaders translated to GLSL ES.
+ * <p>
+ * Entries are keyed by a SHA-256 hash of the original shader source together with {@link #TRANSLATOR_VERSION}
+ * and the translator options,
+ * and are stored under a directory named after the translator version, so output of an older translator is never reused.
+ * Every entry starts with a small header holding the key, the payload length and its CRC32,
+ * which is verified on read; entries failing verification are deleted and treated as a miss.
+ * Entries are written to a temporary file first and then atomically moved into place,
+ * so a process killed mid-write can't leave a truncated entry behind.
+ * <p>
+ * The cache is enabled by default and can be relocated or disabled with the {@code shaderCache} agent option
+ * ({@code shaderCache=/some/dir} or {@code shaderCache=off}).
+ */
+public class ShaderCache {
+    /**
+     * Must be bumped whenever a change to the translator affects its output.
+     */
+    public static final int TRANSLATOR_VERSION = 9;
+
+    private static final String MAGIC = "ZDSC1";
+    private static final String ENTRY_SUFFIX = ".glsl";
+
+    private static final Path cacheDir = resolveCacheDir();
+
+    private static Path resolveCacheDir() {
+        String option = AgentOptions.get("shaderCache", null);
+        if ("off".equals(option) || "false".equals(option)) return null;
+
+        Path root = option != null
+                ? Paths.get(option)
+                : Paths.get(System.getProperty("user.home"), ".zomdroid", "shader-cache");
+        Path dir = root.resolve("v" + TRANSLATOR_VERSION);
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            System.out.println("Shader cache disabled, failed to create " + dir + ": " + e);
+            return null;
+        }
+        return dir;
+    }
+
+    public static boolean isEnabled() {
+        return cacheDir != null;
+    }
+
+    /**
+     * Computes the cache key of a shader source translated with the given options.
+     */
+    public static String keyOf(String code, GLSLTranslator.Options options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(("translator-" + TRANSLATOR_VERSION + "\0").getBytes(StandardCharsets.UTF_8));
+            if (!options.equals(GLSLTranslator.Options.DEFAULT)) {
+                digest.update((options + "\0").getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update(code.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return translated shader stored under {@code key}, or {@code null} if there is no valid entry
+     */
+    public static String get(String key) {
+        if (cacheDir == null) return null;
+
+        Path entry = entryPath(key);
+        if (!Files.isRegularFile(entry)) return null;
+
+        try {
+            byte[] data = Files.readAllBytes(entry);
+            String payload = decode(key, data);
+            if (payload == null) {
+                System.out.println("Discarding corrupted shader cache entry " + entry);
+                Files.deleteIfExists(entry);
+            }
+            return payload;
+        } catch (IOException e) {
+            System.out.println("Failed to read shader cache entry " + entry + ": " + e);
+            return null;
+        }
+    }
+
+    public static void put(String key, String translatedCode) {
+        if (cacheDir == null) return;
+
+        Path entry = entryPath(key);
+        Path tmp = null;
+        try {
+            Files.createDirectories(entry.getParent());
+            tmp = Files.createTempFile(entry.getParent(), key, ".tmp");
+            Files.write(tmp, encode(key, translatedCode));
+            try {
+                Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException e) {
+            System.out.println("Failed to write shader cache entry " + entry + ": " + e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static Path entryPath(String key) {
+        return cacheDir.resolve(key.substring(0, 2)).resolve(key + ENTRY_SUFFIX);
+    }
+
+    private static byte[] encode(String key, String payload) {
+        byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(payloadBytes);
+
+        String header = MAGIC + ' ' + key + ' ' + payloadBytes.length + ' ' + Long.toHexString(crc.getValue()) + '\n';
+        byte[] headerBytes = header.getBytes(StandardCharsets.US_ASCII);
+
+        byte[] data = new byte[headerBytes.length + payloadBytes.length];
+        System.arraycopy(headerBytes, 0, data, 0, headerBytes.length);
+        System.arraycopy(payloadBytes, 0, data, headerBytes.length, payloadBytes.length);
+        return data;
+    }
+
+    private static String decode(String key, byte[] data) {
+        int newline = -1;
+        for (int i = 0; i < data.length && i < 256; i++) {
+            if (data[i] == '\n') {
+                newline = i;
+                break;
+            }
+        }
+        if (newline == -1) return null;
+
+        String[] header = new String(data, 0, newline, StandardCharsets.US_ASCII).split(" ");
+        if (header.length != 4 || !header[0].equals(MAGIC) || !header[1].equals(key)) return null;
+
+        int payloadOffset = newline + 1;
+        int payloadLength;
+        long expectedCrc;
+        try {
+            payloadLength = Integer.parseInt(header[2]);
+            expectedCrc = Long.parseLong(header[3], 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (payloadLength != data.length - payloadOffset) return null;
+
+        CRC32 crc = new CRC32();
+        crc.update(data, payloadOffset, payloadLength);
+        if (crc.getValue() != expectedCrc) return null;
+
+        return new String(data, payloadOffset, payloadLength, StandardCharsets.UTF_8);
+    }
+}
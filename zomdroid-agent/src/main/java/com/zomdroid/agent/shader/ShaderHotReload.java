@@ -0,0 +1,164 @@
+package com.zomdroid.agent.shader;
+
+import com.zomdroid.agent.AgentOptions;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Watches a shader directory and re-translates shaders as their files change, for iterating on shader packs
+ * without restarting the game.
+ * <p>
+ * A change to any file re-translates only the {@code .vert} and {@code .frag} files that include it, directly or
+ * transitively according to {@link IncludeGraph}, and drops the {@link IncludeCache} entries built from it.
+ * Fresh translations replace the stale ones in {@link ShaderPrecompiler}, so once the game reloads the shader it's
+ * served without translating on the render thread; all other caches are keyed by content and never serve
+ * stale code.
+ * <p>
+ * Enabled with the {@code watchShaders} agent option, either as a flag (watches {@code media/shaders})
+ * or with an explicit directory.
+ */
+public class ShaderHotReload {
+    private static final String DEFAULT_SHADER_DIR = "media/shaders";
+    /** Editors often write a file in several steps, changes within this window are handled together. */
+    private static final long SETTLE_MILLIS = 50;
+
+    public static void startFromOptions() {
+        String option = AgentOptions.get("watchShaders", null);
+        if (option == null || option.equals("false") || option.equals("off")) return;
+
+        start(Path.of(option.equals("true") ? DEFAULT_SHADER_DIR : option));
+    }
+
+    public static void start(Path shaderDir) {
+        if (!Files.isDirectory(shaderDir)) {
+            System.out.println("Shader watching skipped, " + shaderDir.toAbsolutePath() + " is not a directory");
+            return;
+        }
+
+        WatchService watcher;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            register(watcher, shaderDir);
+        } catch (IOException e) {
+            System.out.println("Shader watching skipped, failed to watch " + shaderDir + ": " + e);
+            return;
+        }
+
+        Thread thread = new Thread(() -> run(watcher, shaderDir), "zomdroid-shader-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("Watching shaders in " + shaderDir.toAbsolutePath());
+    }
+
+    private static void run(WatchService watcher, Path shaderDir) {
+        // the game reports includes only for shaders it has loaded, so record the rest up front
+        for (Path shaderFile : programUnits(shaderDir)) {
+            try {
+                ShaderPrecompiler.recordSource(shaderFile, new ShaderSourceLoader().load(shaderFile));
+            } catch (IOException e) {
+                System.out.println("Failed to read includes of " + shaderFile + ": " + e);
+            }
+        }
+
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Set<Path> changed = new LinkedHashSet<>();
+                boolean overflow = false;
+                do {
+                    overflow |= collect(watcher, key, changed);
+                    key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                if (overflow) changed.addAll(programUnits(shaderDir));
+                reload(changed);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // agent is shutting down
+        } catch (RuntimeException e) {
+            System.out.println("Shader watching stopped: " + e);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return whether events were lost and everything should be treated as changed
+     */
+    private static boolean collect(WatchService watcher, WatchKey key, Set<Path> changed) {
+        Path dir = (Path) key.watchable();
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    register(watcher, path);
+                    changed.addAll(programUnits(path));
+                } catch (IOException e) {
+                    System.out.println("Failed to watch " + path + ": " + e);
+                }
+                continue;
+            }
+            changed.add(path);
+        }
+        key.reset();
+        return overflow;
+    }
+
+    private static void reload(Set<Path> changed) {
+        long startTime = System.nanoTime();
+        Set<Path> affected = new LinkedHashSet<>();
+        for (Path path : changed) {
+            IncludeCache.invalidate(path);
+            affected.addAll(IncludeGraph.affectedBy(path));
+        }
+
+        int retranslated = 0;
+        for (Path path : affected) {
+            if (ShaderPrecompiler.isShaderProgramUnit(path) && ShaderPrecompiler.retranslate(path)) {
+                retranslated++;
+            }
+        }
+        if (retranslated > 0) {
+            System.out.println("Shader change in " + changed.size() + " files, re-translated " + retranslated
+                    + " shaders in " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+        }
+    }
+
+    private static void register(WatchService watcher, Path dir) throws IOException {
+        List<Path> dirs;
+        try (Stream<Path> files = Files.walk(dir)) {
+            dirs = files.filter(Files::isDirectory).collect(Collectors.toList());
+        }
+        for (Path d : dirs) {
+            d.toAbsolutePath().normalize().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+    }
+
+    private static List<Path> programUnits(Path dir) {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(ShaderPrecompiler::isShaderProgramUnit).collect(Collectors.toList());
+        } catch (IOException e) {
+            System.out.println("Failed to scan " + dir + ": " + e);
+            return List.of();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.zomdroid.agent.shader;
+
+import com.zomdroid.agent.AgentOptions;
+import com.zomdroid.agent.glsl.TwoStageParser;
+
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-shader translation metrics: time spent in each stage of the translator, input and output size,
+ * number of edits and bytes allocated by the translating thread.
+ * <p>
+ * Collection is enabled with the {@code shaderMetrics} agent option. Metrics are then available through
+ * the {@link ShaderMetricsMXBean} registered as {@value #OBJECT_NAME}, e.g. in JConsole or VisualVM.
+ * With {@code shaderMetricsFile=/some/file.jsonl}, which implies {@code shaderMetrics}, they are also written
+ * at shutdown as JSON lines, one object per translation.
+ */
+public class ShaderMetrics implements ShaderMetricsMXBean {
+    public static final String OBJECT_NAME = "com.zomdroid.agent:type=ShaderMetrics";
+
+    public enum Origin {
+        TRANSLATED, CACHE
+    }
+
+    /**
+     * Metrics of a single shader. Stage times and edits are {@code 0} and {@code predictionPath} is {@code null}
+     * for translations taken from {@link ShaderCache}.
+     */
+    public record Translation(String shader, Origin origin, long totalNanos,
+                              long lexNanos, long parseNanos, TwoStageParser.PredictionPath predictionPath,
+                              long sllNanos, long llNanos, long visitNanos, long rewriteNanos,
+                              int inputChars, int outputChars, int edits, long allocatedBytes) {
+        public String toJson() {
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"shader\":");
+            appendJsonString(json, shader);
+            json.append(",\"origin\":\"").append(origin).append('"');
+            json.append(",\"totalMicros\":").append(totalNanos / 1000);
+            json.append(",\"lexMicros\":").append(lexNanos / 1000);
+            json.append(",\"parseMicros\":").append(parseNanos / 1000);
+            json.append(",\"prediction\":");
+            if (predictionPath == null) json.append("null");
+            else json.append('"').append(predictionPath).append('"');
+            json.append(",\"sllMicros\":").append(sllNanos / 1000);
+            json.append(",\"llMicros\":").append(llNanos / 1000);
+            json.append(",\"visitMicros\":").append(visitNanos / 1000);
+            json.append(",\"rewriteMicros\":").append(rewriteNanos / 1000);
+            json.append(",\"inputChars\":").append(inputChars);
+            json.append(",\"outputChars\":").append(outputChars);
+            json.append(",\"edits\":").append(edits);
+            json.append(",\"allocatedBytes\":").append(allocatedBytes);
+            json.append('}');
+            return json.toString();
+        }
+    }
+
+    private static volatile boolean enabled = false;
+    private static final Queue<Translation> translations = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger precompiledHits = new AtomicInteger();
+    private static final AtomicInteger asyncHits = new AtomicInteger();
+    private static final AtomicInteger asyncMisses = new AtomicInteger();
+    private static final AtomicLong asyncJoinBlockedNanos = new AtomicLong();
+
+    public static void startFromOptions() {
+        String file = AgentOptions.get("shaderMetricsFile", null);
+        if (!AgentOptions.getBoolean("shaderMetrics", false) && file == null) return;
+
+        enabled = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new ShaderMetrics(), new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            System.out.println("Failed to register shader metrics MBean: " + e);
+        }
+
+        if (file != null) {
+            Path dumpFile = Path.of(file);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(dumpFile), "zomdroid-shader-metrics"));
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void record(Translation translation) {
+        translations.add(translation);
+    }
+
+    public static void recordPrecompiledHit() {
+        if (enabled) precompiledHits.incrementAndGet();
+    }
+
+    /**
+     * Records a join on a translation started by {@link AsyncShaderTranslator}.
+     *
+     * @param blockedNanos time the caller waited for the translation to finish
+     * @param hit          whether the translation was used, i.e. it was of the same source the game produced
+     */
+    public static void recordAsyncJoin(long blockedNanos, boolean hit) {
+        if (!enabled) return;
+        (hit ? asyncHits : asyncMisses).incrementAndGet();
+        asyncJoinBlockedNanos.addAndGet(blockedNanos);
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, or {@code 0} if the JVM doesn't track it
+     */
+    public static long currentThreadAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean hotspotThreads && hotspotThreads.isThreadAllocatedMemoryEnabled()) {
+            return hotspotThreads.getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    private static void dump(Path file) {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Translation translation : translations) {
+                writer.write(translation.toJson());
+                writer.newLine();
+            }
+            System.out.println("Wrote metrics of " + translations.size() + " shader translations to " + file);
+        } catch (IOException e) {
+            System.out.println("Failed to write shader metrics to " + file + ": " + e);
+        }
+    }
+
+    private static void appendJsonString(StringBuilder json, String s) {
+        if (s == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+                    else json.append(c);
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    @Override
+    public int getTranslatedCount() {
+        return count(Origin.TRANSLATED);
+    }
+
+    @Override
+    public int getCacheHitCount() {
+        return count(Origin.CACHE);
+    }
+
+    @Override
+    public int getPrecompiledHitCount() {
+        return precompiledHits.get();
+    }
+
+    @Override
+    public int getAsyncHitCount() {
+        return asyncHits.get();
+    }
+
+    @Override
+    public int getAsyncMissCount() {
+        return asyncMisses.get();
+    }
+
+    @Override
+    public long getAsyncJoinBlockedMicros() {
+        return asyncJoinBlockedNanos.get() / 1000;
+    }
+
+    @Override
+    public int getLLFallbackCount() {
+        int count = 0;
+        for (Translation translation : translations) {
+            if (translation.predictionPath() == TwoStageParser.PredictionPath.LL) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public long getTotalMicros() {
+        long nanos = 0;
+        for (Translation translation : translations) nanos += translation.totalNanos();
+        return nanos / 1000;
+    }
+
+    @Override
+    public long getLexMicros() {
+        long nanos = 0;
+        for (Translation translation : translations) nanos += translation.lexNanos();
+        return nanos / 1000;
+    }
+
+    @Override
+    public long getParseMicros() {
+        long nanos = 0;
+        for (Translation translation : translations) nanos += translation.parseNanos();
+        return nanos / 1000;
+    }
+
+    @Override
+    public long getVisitMicros() {
+        long nanos = 0;
+        for (Translation translation : translations) nanos += translation.visitNanos();
+        return nanos / 1000;
+    }
+
+    @Override
+    public long getRewriteMicros() {
+        long nanos = 0;
+        for (Translation translation : translations) nanos += translation.rewriteNanos();
+        return nanos / 1000;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        long bytes = 0;
+        for (Translation translation : translations) bytes += translation.allocatedBytes();
+        return bytes;
+    }
+
+    @Override
+    public String[] getTranslations() {
+        return translations.stream().map(Translation::toJson).toArray(String[]::new);
+    }
+
+    @Override
+    public void reset() {
+        translations.clear();
+        precompiledHits.set(0);
+        asyncHits.set(0);
+        asyncMisses.set(0);
+        asyncJoinBlockedNanos.set(0);
+    }
+
+    private static int count(Origin origin) {
+        int count = 0;
+        for (Translation translation : translations) {
+            if (translation.origin() == origin) count++;
+        }
+        return count;
+    }
+}
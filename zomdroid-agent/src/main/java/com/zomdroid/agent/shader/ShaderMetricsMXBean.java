@@ -0,0 +1,52 @@
+package com.zomdroid.agent.shader;
+
+/**
+ * JMX view of {@link ShaderMetrics}, registered as {@value ShaderMetrics#OBJECT_NAME}.
+ * Stage times are totals over all shaders translated so far.
+ */
+public interface ShaderMetricsMXBean {
+    int getTranslatedCount();
+
+    int getCacheHitCount();
+
+    /**
+     * @return number of shaders served by {@link ShaderPrecompiler} or a {@link ShaderPack}
+     */
+    int getPrecompiledHitCount();
+
+    /**
+     * @return number of shaders served by {@link AsyncShaderTranslator}
+     */
+    int getAsyncHitCount();
+
+    /**
+     * @return number of {@link AsyncShaderTranslator} results discarded because the game produced a different source
+     */
+    int getAsyncMissCount();
+
+    /**
+     * @return time the game spent waiting for {@link AsyncShaderTranslator} results
+     */
+    long getAsyncJoinBlockedMicros();
+
+    int getLLFallbackCount();
+
+    long getTotalMicros();
+
+    long getLexMicros();
+
+    long getParseMicros();
+
+    long getVisitMicros();
+
+    long getRewriteMicros();
+
+    long getAllocatedBytes();
+
+    /**
+     * @return one JSON object per translation, in the format of the {@code shaderMetricsFile} dump
+     */
+    String[] getTranslations();
+
+    void reset();
+}
@@ -0,0 +1,81 @@
+package com.zomdroid.agent.shader;
+
+import com.zomdroid.agent.AgentOptions;
+import com.zomdroid.agent.decorators.ShaderUnit;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shaders translated ahead of time by {@link ShaderPackTranslator}, loaded at boot so known shaders are never
+ * translated in game.
+ * <p>
+ * A pack is a directory with the translated shaders and a {@value #MANIFEST_NAME} listing the {@link ShaderCache}
+ * key of every shader's source next to the path of its translation. Shaders are looked up by the key of the source
+ * the game produces, so a shader that changed since the pack was built, or a pack built with other translator
+ * options, is simply translated as usual. Packs built by another {@link ShaderCache#TRANSLATOR_VERSION} are ignored.
+ * <p>
+ * Loaded with the {@code shaderPack=/some/dir} agent option.
+ */
+public class ShaderPack {
+    public static final String MANIFEST_NAME = "manifest.txt";
+    static final String MANIFEST_HEADER = "zomdroid-shader-pack";
+
+    private static volatile Map<String, String> translations = Map.of();
+
+    public static void startFromOptions() {
+        String option = AgentOptions.get("shaderPack", null);
+        if (option == null) return;
+
+        load(Path.of(option));
+    }
+
+    public static void load(Path packDir) {
+        Path manifest = packDir.resolve(MANIFEST_NAME);
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(manifest);
+        } catch (IOException e) {
+            System.out.println("Shader pack skipped, failed to read " + manifest + ": " + e);
+            return;
+        }
+
+        String expectedHeader = MANIFEST_HEADER + " " + ShaderCache.TRANSLATOR_VERSION;
+        if (lines.isEmpty() || !lines.get(0).equals(expectedHeader)) {
+            System.out.println("Shader pack skipped, " + manifest + " wasn't built by translator version "
+                    + ShaderCache.TRANSLATOR_VERSION);
+            return;
+        }
+
+        Map<String, String> loaded = new HashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) continue;
+            int space = line.indexOf(' ');
+            if (space == -1) {
+                System.out.println("Skipping malformed shader pack entry: " + line);
+                continue;
+            }
+            Path file = packDir.resolve(line.substring(space + 1));
+            try {
+                loaded.put(line.substring(0, space), Files.readString(file));
+            } catch (IOException e) {
+                System.out.println("Skipping shader pack entry " + file + ": " + e);
+            }
+        }
+        translations = loaded;
+        System.out.println("Loaded " + loaded.size() + " translated shaders from " + packDir);
+    }
+
+    /**
+     * @return translation of {@code code} from the pack, or {@code null} if the pack doesn't have it
+     */
+    public static String lookup(String code) {
+        Map<String, String> current = translations;
+        if (current.isEmpty()) return null;
+        return current.get(ShaderCache.keyOf(code, ShaderUnit.preProcessShaderFile.translatorOptions));
+    }
+}
@@ -0,0 +1,120 @@
+package com.zomdroid.agent.shader;
+
+import com.zomdroid.agent.AgentOptions;
+import com.zomdroid.agent.decorators.ShaderUnit;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Command line tool translating a whole shader directory ahead of time into a {@link ShaderPack}:
+ * <pre>
+ *   java -jar zomdroid-agent.jar [--threads=N] [--options=inferPrecision,minifyShaders] shaderDir outputDir
+ * </pre>
+ * Every {@code .vert} and {@code .frag} file is reconstructed with {@link ShaderSourceLoader}, which resolves
+ * includes the way the patched {@code processIncludeLine} does, and translated in parallel. Translations are written
+ * to {@code outputDir} under the shader's relative path, together with a {@value ShaderPack#MANIFEST_NAME} sorted by
+ * path, so the same input always produces the same pack. {@code --options} takes agent options that affect
+ * translation; they must match the options the agent runs with, or the pack won't be used.
+ * <p>
+ * Sources are reconstructed with the platform line separator, so packs should be built on a platform with the same
+ * line separator as the device.
+ */
+public class ShaderPackTranslator {
+    public static void main(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String options = null;
+        List<String> paths = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                threads = Math.max(1, Integer.parseInt(arg.substring("--threads=".length())));
+            } else if (arg.startsWith("--options=")) {
+                options = arg.substring("--options=".length());
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.size() != 2) {
+            System.out.println("Usage: ShaderPackTranslator [--threads=N] [--options=agentOptions] shaderDir outputDir");
+            System.exit(2);
+        }
+
+        // must happen before the translator options are read, and the build never touches the user's shader cache
+        AgentOptions.parse(options);
+        AgentOptions.parse("shaderCache=off");
+
+        try {
+            int failed = translate(Path.of(paths.get(0)), Path.of(paths.get(1)), threads);
+            System.exit(failed == 0 ? 0 : 1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return number of shaders that failed to translate
+     */
+    public static int translate(Path shaderDir, Path outputDir, int threads) throws IOException {
+        List<Path> shaderFiles;
+        try (Stream<Path> files = Files.walk(shaderDir)) {
+            shaderFiles = files.filter(ShaderPrecompiler::isShaderProgramUnit).sorted().collect(Collectors.toList());
+        }
+
+        long startTime = System.nanoTime();
+        Map<String, String> manifest = new TreeMap<>();
+        int failed = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> keys = new ArrayList<>(shaderFiles.size());
+            for (Path shaderFile : shaderFiles) {
+                keys.add(pool.submit(() -> translate(shaderFile, shaderDir, outputDir)));
+            }
+            for (int i = 0; i < shaderFiles.size(); i++) {
+                String relativePath = shaderDir.relativize(shaderFiles.get(i)).toString().replace('\\', '/');
+                try {
+                    manifest.put(relativePath, keys.get(i).get());
+                } catch (Exception e) {
+                    System.out.println("Failed to translate " + relativePath + ": " + e);
+                    failed++;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(ShaderPack.MANIFEST_HEADER).append(' ').append(ShaderCache.TRANSLATOR_VERSION).append('\n');
+        manifest.forEach((path, key) -> sb.append(key).append(' ').append(path).append('\n'));
+        Files.createDirectories(outputDir);
+        Files.writeString(outputDir.resolve(ShaderPack.MANIFEST_NAME), sb, StandardCharsets.UTF_8);
+
+        System.out.println("Translated " + manifest.size() + " of " + shaderFiles.size() + " shaders into " + outputDir
+                + " in " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+        return failed;
+    }
+
+    /**
+     * @return cache key of the shader's source
+     */
+    private static String translate(Path shaderFile, Path shaderDir, Path outputDir) throws IOException {
+        String code = new ShaderSourceLoader().load(shaderFile);
+        String translated = ShaderUnit.preProcessShaderFile.translateForGLSLES(shaderFile.toString(), code);
+
+        Path output = outputDir.resolve(shaderDir.relativize(shaderFile).toString());
+        Files.createDirectories(output.getParent());
+        Files.writeString(output, translated, StandardCharsets.UTF_8);
+        return ShaderCache.keyOf(code, ShaderUnit.preProcessShaderFile.translatorOptions);
+    }
+}
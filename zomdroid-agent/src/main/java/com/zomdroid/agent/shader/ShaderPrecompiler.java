@@ -0,0 +1,159 @@
+package com.zomdroid.agent.shader;
+
+import com.zomdroid.agent.AgentOptions;
+import com.zomdroid.agent.decorators.ShaderUnit;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Ahead-of-time translation of the game's shaders, started from the agent's {@code premain}.
+ * <p>
+ * Scans a shader directory for {@code .vert} and {@code .frag} files, reconstructs their source with
+ * {@link ShaderSourceLoader} and translates them on a bounded {@link ForkJoinPool} while the game is still booting.
+ * Results are indexed by source text, so {@link ShaderUnit.preProcessShaderFile} picks them up only when the game
+ * produces exactly the same source; if a shader is requested while it's still being translated, the caller
+ * waits for the in-flight translation instead of starting another one.
+ * <p>
+ * Enabled with the {@code precompileShaders} agent option, either as a flag (scans {@code media/shaders})
+ * or with an explicit directory; {@code precompileThreads} bounds the worker pool.
+ */
+public class ShaderPrecompiler {
+    private static final String DEFAULT_SHADER_DIR = "media/shaders";
+
+    private static final Map<String, CompletableFuture<String>> translations = new ConcurrentHashMap<>();
+    /** Last source reconstructed for each shader file, to drop its translation once the file changes. */
+    private static final Map<Path, String> sources = new ConcurrentHashMap<>();
+
+    public static void startFromOptions() {
+        String option = AgentOptions.get("precompileShaders", null);
+        if (option == null || option.equals("false") || option.equals("off")) return;
+
+        Path shaderDir = Path.of(option.equals("true") ? DEFAULT_SHADER_DIR : option);
+        int defaultThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        int threads = Math.max(1, AgentOptions.getInt("precompileThreads", defaultThreads));
+        start(shaderDir, threads);
+    }
+
+    public static void start(Path shaderDir, int threads) {
+        if (!Files.isDirectory(shaderDir)) {
+            System.out.println("Shader precompilation skipped, " + shaderDir.toAbsolutePath() + " is not a directory");
+            return;
+        }
+
+        List<Path> shaderFiles;
+        try (Stream<Path> files = Files.walk(shaderDir)) {
+            shaderFiles = files.filter(ShaderPrecompiler::isShaderProgramUnit).collect(Collectors.toList());
+        } catch (IOException e) {
+            System.out.println("Shader precompilation skipped, failed to scan " + shaderDir + ": " + e);
+            return;
+        }
+        if (shaderFiles.isEmpty()) return;
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long startTime = System.nanoTime();
+        AtomicInteger remaining = new AtomicInteger(shaderFiles.size());
+        System.out.println("Precompiling " + shaderFiles.size() + " shaders from " + shaderDir + " on " + threads + " threads");
+
+        for (Path shaderFile : shaderFiles) {
+            pool.execute(() -> {
+                try {
+                    precompile(shaderFile);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        System.out.println("Precompiled " + shaderFiles.size() + " shaders in "
+                                + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+                        pool.shutdown();
+                    }
+                }
+            });
+        }
+    }
+
+    private static void precompile(Path shaderFile) {
+        String code;
+        try {
+            code = new ShaderSourceLoader().load(shaderFile);
+        } catch (IOException e) {
+            System.out.println("Failed to load shader " + shaderFile + " for precompilation: " + e);
+            return;
+        }
+        sources.put(shaderFile.toAbsolutePath().normalize(), code);
+        translate(shaderFile, code);
+    }
+
+    /**
+     * Reconstructs the source of {@code shaderFile} again and, if it changed, replaces the translation of its
+     * previous source with a translation of the new one.
+     *
+     * @return whether the source changed
+     */
+    public static boolean retranslate(Path shaderFile) {
+        shaderFile = shaderFile.toAbsolutePath().normalize();
+        String code;
+        try {
+            code = new ShaderSourceLoader().load(shaderFile);
+        } catch (IOException e) {
+            System.out.println("Failed to reload shader " + shaderFile + ": " + e);
+            return false;
+        }
+
+        String previous = sources.put(shaderFile, code);
+        if (code.equals(previous)) return false;
+        if (previous != null) translations.remove(previous);
+        translate(shaderFile, code);
+        return true;
+    }
+
+    /**
+     * Remembers the current source of {@code shaderFile} without translating it, so {@link #retranslate(Path)}
+     * can tell whether it changed.
+     */
+    static void recordSource(Path shaderFile, String code) {
+        sources.putIfAbsent(shaderFile.toAbsolutePath().normalize(), code);
+    }
+
+    private static void translate(Path shaderFile, String code) {
+        CompletableFuture<String> translation = new CompletableFuture<>();
+        if (translations.putIfAbsent(code, translation) != null) return; // same source already queued
+
+        try {
+            translation.complete(ShaderUnit.preProcessShaderFile.translateCached(shaderFile.toString(), code));
+        } catch (Throwable t) {
+            System.out.println("Failed to precompile shader " + shaderFile + ": " + t);
+            translation.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Looks up the precomputed translation of {@code code}, waiting for it if it's still in progress.
+     *
+     * @return translated source, or {@code null} if the source wasn't precompiled or its translation failed
+     */
+    public static String lookup(String code) {
+        if (translations.isEmpty()) return null;
+
+        CompletableFuture<String> translation = translations.get(code);
+        if (translation == null) return null;
+
+        try {
+            return translation.join();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    static boolean isShaderProgramUnit(Path path) {
+        String name = path.getFileName().toString();
+        return Files.isRegularFile(path) && (name.endsWith(".vert") || name.endsWith(".frag"));
+    }
+}
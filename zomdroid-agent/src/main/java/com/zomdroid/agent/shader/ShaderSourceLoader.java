@@ -0,0 +1,90 @@
+package com.zomdroid.agent.shader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Reconstructs shader source the same way the game's {@code ShaderUnit.preProcessShaderFile} does when patched by
+ * {@link com.zomdroid.agent.decorators.ShaderUnit}: lines are joined with the platform line separator, and every
+ * {@code #include X} directive is replaced by the contents of {@code X.h} followed by the inlined contents of
+ * {@code X.glsl} without its {@code #version} directive.
+ * <p>
+ * Used to translate shaders before the game asks for them. Results are matched against the game's own
+ * source by content, so any divergence from the game's behaviour only costs a cache miss.
+ * <p>
+ * Every loaded file's includes, found or not, are recorded in {@link IncludeGraph}.
+ */
+public class ShaderSourceLoader {
+    public static final Pattern VERSION_DIRECTIVE = Pattern.compile("(?m)^\\s*#version\\s+.*\\R?");
+    private static final String INCLUDE_DIRECTIVE = "#include";
+
+    private final String lineSeparator = System.lineSeparator();
+    private final Deque<Path> includeStack = new ArrayDeque<>();
+
+    public String load(Path shaderFile) throws IOException {
+        shaderFile = shaderFile.toAbsolutePath().normalize();
+        if (includeStack.contains(shaderFile))
+            throw new IOException("Include cycle detected at " + shaderFile);
+
+        includeStack.push(shaderFile);
+        try {
+            List<String> lines = Files.readAllLines(shaderFile);
+            List<Path> included = new ArrayList<>();
+            StringBuilder code = new StringBuilder();
+            for (String line : lines) {
+                String includeName = parseInclude(line);
+                if (includeName != null) {
+                    Path dir = shaderFile.getParent();
+                    included.add(dir.resolve(includeName + ".h"));
+                    included.add(dir.resolve(includeName + ".glsl"));
+                }
+                if (includeName == null || !appendInclude(shaderFile, includeName, code)) {
+                    code.append(line).append(lineSeparator);
+                }
+            }
+            IncludeGraph.setIncludes(shaderFile, included);
+            return code.toString();
+        } finally {
+            includeStack.pop();
+        }
+    }
+
+    private boolean appendInclude(Path shaderFile, String includeName, StringBuilder code) throws IOException {
+        Path dir = shaderFile.getParent();
+        Path header = dir.resolve(includeName + ".h");
+        Path definitions = dir.resolve(includeName + ".glsl");
+        if (!Files.isRegularFile(header) && !Files.isRegularFile(definitions)) return false;
+
+        if (Files.isRegularFile(header)) {
+            code.append(load(header));
+        }
+        if (Files.isRegularFile(definitions)) {
+            code.append(stripVersion(load(definitions)));
+        }
+        return true;
+    }
+
+    /**
+     * @return name of the included unit, or {@code null} if the line is not an include directive
+     */
+    public static String parseInclude(String line) {
+        String trimmed = line.trim();
+        if (!trimmed.startsWith(INCLUDE_DIRECTIVE)) return null;
+
+        String name = trimmed.substring(INCLUDE_DIRECTIVE.length()).trim();
+        if (name.length() >= 2 && (name.charAt(0) == '"' || name.charAt(0) == '<')) {
+            name = name.substring(1, name.length() - 1).trim();
+        }
+        return name.isEmpty() ? null : name;
+    }
+
+    public static String stripVersion(String code) {
+        return VERSION_DIRECTIVE.matcher(code).replaceFirst("");
+    }
+}
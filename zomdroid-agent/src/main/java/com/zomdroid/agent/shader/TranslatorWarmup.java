@@ -0,0 +1,49 @@
+package com.zomdroid.agent.shader;
+
+import com.zomdroid.agent.AgentOptions;
+import com.zomdroid.agent.glsl.GLSLTranslator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Translates a bundled representative shader on a background thread while the game is booting.
+ * <p>
+ * ANTLR lexers and parsers share their DFA caches between all instances of the same grammar, and building them
+ * from the ATN is most of the cost of the first parse. Warming them up during {@code premain} means the game's
+ * first real shader, translated on the render thread, finds them already populated.
+ * <p>
+ * Enabled by default; disabled with the {@code translatorWarmup=false} agent option.
+ */
+public class TranslatorWarmup {
+    private static final String WARMUP_SHADER = "shaders/warmup.frag";
+
+    public static void startFromOptions() {
+        if (!AgentOptions.getBoolean("translatorWarmup", true)) return;
+
+        Thread thread = new Thread(TranslatorWarmup::run, "zomdroid-translator-warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private static void run() {
+        try (InputStream in = TranslatorWarmup.class.getClassLoader().getResourceAsStream(WARMUP_SHADER)) {
+            if (in == null) {
+                System.out.println("Translator warm-up skipped, " + WARMUP_SHADER + " is missing");
+                return;
+            }
+            String code = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+
+            long startTime = System.nanoTime();
+            new GLSLTranslator().translate(code);
+            System.out.println("Translator warmed up in " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+        } catch (IOException e) {
+            System.out.println("Translator warm-up failed: " + e);
+        } catch (RuntimeException e) {
+            System.out.println("Translator warm-up failed: " + e);
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+#version 120
+// Representative shader translated once at startup to populate the lexer and parser DFA caches.
+// Not used for rendering; it should touch the constructs common in the game's shaders.
+
+#define LIGHT_COUNT 4
+#ifdef GL_ES
+precision mediump float;
+#endif
+
+struct Light {
+    vec3 position;
+    vec3 color;
+    float radius;
+};
+
+uniform sampler2D DIFFUSE;
+uniform sampler2D NORMALS;
+uniform vec4 ambient;
+uniform vec2 screenSize;
+uniform float timer;
+uniform int lightCount;
+uniform Light lights[LIGHT_COUNT];
+uniform mat4 transform;
+
+varying vec2 texCoord;
+varying vec4 vertColor;
+varying vec3 worldPos;
+
+const float PI = 3.14159265;
+
+float saturate1(float x) {
+    return clamp(x, 0, 1);
+}
+
+vec3 toLinear(vec3 c) {
+    return pow(c, vec3(2.2));
+}
+
+float attenuation(in float dist, in float radius) {
+    float a = max(1 - dist / radius, 0);
+    return a * a;
+}
+
+void accumulate(inout vec3 total, vec3 color, float amount) {
+    total += color * amount;
+}
+
+vec3 shade(vec3 albedo, vec3 normal) {
+    vec3 total = ambient.rgb * ambient.a;
+    for (int i = 0; i < LIGHT_COUNT; i++) {
+        if (i >= lightCount) break;
+        vec3 toLight = lights[i].position - worldPos;
+        float dist = length(toLight);
+        float ndotl = max(dot(normal, toLight / dist), 0.0);
+        accumulate(total, lights[i].color, ndotl * attenuation(dist, lights[i].radius));
+    }
+    return albedo * total;
+}
+
+void main() {
+    vec4 diffuse = texture2D(DIFFUSE, texCoord);
+    if (diffuse.a < 0.01) {
+        discard;
+    }
+    vec3 normal = normalize(texture2D(NORMALS, texCoord).xyz * 2 - 1);
+    vec2 uv = gl_FragCoord.xy / screenSize;
+    float flicker = 0.5 + 0.5 * sin(timer * 2 * PI);
+    float vignette = 1 - saturate1(length(uv - 0.5) * 1.5);
+    int steps = 0;
+    while (steps < 3) {
+        steps++;
+    }
+    vec4 pos = transform * vec4(worldPos, 1);
+    vec3 color = shade(toLinear(diffuse.rgb) * vertColor.rgb, normal);
+    color *= steps > 2 ? flicker : 1.0;
+    gl_FragColor = vec4(color * vignette + pos.xyz * 0.0, diffuse.a);
+}